@@ -0,0 +1,53 @@
+package lox;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A short rule script run with fresh bindings each time, the way a service
+// embedding LoxEngine would. compileEachRun pays for the front end on every
+// run, as Lox.run does; run compiles once in setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddingBenchmark {
+    private static final String RULE =
+            "var total = price * quantity;\n" +
+            "if (total > limit) total = limit;\n" +
+            "var discount = 0;\n" +
+            "if (quantity >= 10) discount = total * 0.1;\n" +
+            "var due = total - discount;\n";
+
+    private final LoxEngine engine = new LoxEngine();
+    private final Map<String, Object> bindings =
+            Map.of("price", 12.5, "quantity", 14, "limit", 150);
+    private CompiledScript script;
+
+    @Setup
+    public void setUp() {
+        script = engine.compile(RULE);
+    }
+
+    @Benchmark
+    public Object compileEachRun() {
+        return engine.compile(RULE).run(bindings).get("due");
+    }
+
+    @Benchmark
+    public Object run() {
+        return script.run(bindings).get("due");
+    }
+}
@@ -0,0 +1,61 @@
+package lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"1000", "20000"})
+    public int declarations;
+
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        source = Workloads.generate(declarations);
+        tokens = new Scanner(source, reporter).scanTokens();
+        statements = new Parser(tokens, reporter).parse();
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        blackhole.consume(new Scanner(source, reporter).scanTokens());
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        blackhole.consume(new Parser(tokens, reporter).parse());
+    }
+
+    // Only splits when the common pool has more than one thread.
+    @Benchmark
+    public void parallelParse(Blackhole blackhole) {
+        blackhole.consume(ParallelParser.parse(tokens, reporter));
+    }
+
+    @Benchmark
+    public void resolve() {
+        new Resolver(reporter).resolve(statements);
+    }
+}
@@ -0,0 +1,62 @@
+package lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lox.vm.Prototype;
+import lox.vm.VM;
+
+// Runs a whole workload script per invocation. The front end runs once in
+// setup, so only execution is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "nested_loops", "closures", "strings"})
+    public String workload;
+
+    @Param({"tree", "vm"})
+    public String engine;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+    private VM vm;
+    private Prototype script;
+
+    @Setup
+    public void setUp() {
+        String source = Workloads.load(workload);
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        interpreter = new Interpreter(reporter, System.out);
+        new Resolver(reporter).resolve(statements);
+        if (engine.equals("vm")) {
+            vm = new VM();
+            script = new Compiler(vm, reporter).compile(statements);
+        }
+    }
+
+    @Benchmark
+    public void run() {
+        if (vm != null) {
+            vm.interpret(script);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Several threads running one workload at once, each in its own
+// Interpreter over a tree that was parsed and resolved once. Compare the
+// throughput with -t 1 to see how well contexts scale.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ParallelBenchmark {
+    @State(Scope.Benchmark)
+    public static class Script {
+        @Param({"fib", "closures", "strings"})
+        public String workload;
+
+        List<Stmt> statements;
+
+        @Setup
+        public void setUp() {
+            ErrorReporter reporter = new ErrorReporter(System.err);
+            String source = Workloads.load(workload);
+            statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+            new Resolver(reporter).resolve(statements);
+        }
+    }
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() {
+        interpreter = new Interpreter(new ErrorReporter(System.err),
+                new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Benchmark
+    public void run(Script script) {
+        interpreter.interpret(script.statements);
+    }
+}
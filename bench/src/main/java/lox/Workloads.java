@@ -0,0 +1,39 @@
+package lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+final class Workloads {
+    private Workloads() {}
+
+    static String load(String name) {
+        String path = "/workloads/" + name + ".lox";
+        try (InputStream in = Workloads.class.getResourceAsStream(path)) {
+            if (in == null) throw new IllegalArgumentException("No workload " + path);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A generated script shaped like our code generator's output: many
+    // independent top-level functions and variables.
+    static String generate(int declarations) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < declarations; i++) {
+            source.append("fun handler").append(i).append("(a, b) {\n")
+                  .append("  var total = 0;\n")
+                  .append("  for (var i = 0; i < a; i = i + 1) {\n")
+                  .append("    if (i > b and total != nil) total = total + i * 2;\n")
+                  .append("    else total = total - 1;\n")
+                  .append("  }\n")
+                  .append("  return total > 100 ? \"big\" : \"small\";\n")
+                  .append("}\n")
+                  .append("var value").append(i).append(" = ")
+                  .append(i).append(".5 * 60 * 60 + 24;\n");
+        }
+        return source.toString();
+    }
+}
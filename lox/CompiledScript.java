@@ -0,0 +1,79 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// A parsed and resolved script, ready to run. The tree is shared by every
+// run; everything a run changes lives in that run's own Interpreter.
+public final class CompiledScript {
+    private final List<Stmt> statements;
+
+    CompiledScript(List<Stmt> statements) {
+        this.statements = statements;
+    }
+
+    public Result run() {
+        return run(Collections.emptyMap());
+    }
+
+    // Defines each binding as a global before the script starts. Values
+    // can be numbers, booleans, strings or null.
+    public Result run(Map<String, ?> bindings) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(null);
+        Interpreter interpreter = new Interpreter(reporter,
+                new PrintStream(output, false, StandardCharsets.UTF_8));
+        for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+            interpreter.globals.define(binding.getKey(), toLox(binding.getValue()));
+        }
+        interpreter.interpret(statements);
+        LoxError error = reporter.hadRuntimeError ? reporter.errors.get(0) : null;
+        return new Result(interpreter.globals,
+                output.toString(StandardCharsets.UTF_8), error);
+    }
+
+    private static Object toLox(Object value) {
+        if (value == null || value instanceof Boolean ||
+                value instanceof CharSequence) {
+            return value;
+        }
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        throw new IllegalArgumentException(
+                "Can't bind a " + value.getClass().getName() + " to a Lox global.");
+    }
+
+    // What one run left behind.
+    public static final class Result {
+        private final Globals globals;
+        private final String output;
+        private final LoxError error;
+
+        private Result(Globals globals, String output, LoxError error) {
+            this.globals = globals;
+            this.output = output;
+            this.error = error;
+        }
+
+        // Everything the script printed.
+        public String output() {
+            return output;
+        }
+
+        // The runtime error that stopped the script, or null if it ran to
+        // the end.
+        public LoxError error() {
+            return error;
+        }
+
+        // The value a global had when the script stopped. Strings come back
+        // as String; throws IllegalArgumentException if it was never defined.
+        public Object get(String name) {
+            Object value = globals.get(name);
+            return value instanceof CharSequence ? value.toString() : value;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lox.vm.Chunk;
+import lox.vm.OpCode;
+import lox.vm.Prototype;
+import lox.vm.VM;
+
+// Translates the resolved AST into bytecode for lox.vm.VM. Scoping mirrors
+// Resolver: a function's parameters and the top level of its body share one
+// scope, every block opens a new one, and anything not found in an enclosing
+// scope is a global.
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean captured;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int depth;
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Loop(Loop enclosing, int depth) {
+            this.enclosing = enclosing;
+            this.depth = depth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Prototype prototype;
+        final List<Local> locals = new ArrayList<>();
+        final List<Integer> upvalues = new ArrayList<>();
+        int scopeDepth;
+        Loop loop;
+
+        FunctionState(FunctionState enclosing, Prototype prototype) {
+            this.enclosing = enclosing;
+            this.prototype = prototype;
+            // Slot zero holds the closure being called.
+            locals.add(new Local("", 0));
+        }
+    }
+
+    private final VM vm;
+    private final ErrorReporter reporter;
+    private FunctionState current;
+    private int line;
+
+    Compiler(VM vm, ErrorReporter reporter) {
+        this.vm = vm;
+        this.reporter = reporter;
+    }
+
+    Prototype compile(List<Stmt> statements) {
+        current = new FunctionState(null, new Prototype("script", 0));
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+        return current.prototype;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(stmt.print ? OpCode.PRINT : OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        // Declare a fresh local before compiling the body so the function
+        // can refer to itself.
+        if (current.scopeDepth > 0 && findLocal(current, stmt.name.lexeme(), true) < 0) {
+            addLocal(stmt.name);
+            function(stmt.name.lexeme(), stmt.function);
+            return null;
+        }
+        function(stmt.name.lexeme(), stmt.function);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        current.scopeDepth++;
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().size();
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+        current.loop = new Loop(current.loop, current.scopeDepth);
+        compile(stmt.body);
+        for (int jump : current.loop.continues) {
+            patchJump(jump);
+        }
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        for (int jump : current.loop.breaks) {
+            patchJump(jump);
+        }
+        current.loop = current.loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitJumpStmt(Stmt.Jump stmt) {
+        line = stmt.jump.line;
+        if (current.loop == null) {
+            reporter.error(stmt.jump, "'break' without loop");
+            return null;
+        }
+        discardLocals(current.loop.depth);
+        if (stmt.jump.type == TokenType.BREAK) {
+            current.loop.breaks.add(emitJump(OpCode.JUMP));
+        } else {
+            current.loop.continues.add(emitJump(OpCode.JUMP));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emit(OpCode.NIL);
+        } else if (stmt.tailCall != null) {
+            compile(stmt.tailCall.callee);
+            for (Expr arg : stmt.tailCall.args) {
+                compile(arg);
+            }
+            line = stmt.tailCall.paren.line;
+            emit(OpCode.TAIL_CALL, stmt.tailCall.args.size());
+            return null;
+        } else {
+            compile(stmt.value);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        int slot = findLocal(current, expr.name.lexeme(), false);
+        if (slot >= 0) {
+            emit(OpCode.GET_LOCAL, slot);
+            return null;
+        }
+        slot = findUpvalue(current, expr.name.lexeme());
+        if (slot >= 0) {
+            emit(OpCode.GET_UPVALUE, slot);
+            return null;
+        }
+        emitShort(OpCode.GET_GLOBAL, vm.globalSlot(expr.name.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        int slot = findLocal(current, expr.name.lexeme(), false);
+        if (slot >= 0) {
+            emit(OpCode.SET_LOCAL, slot);
+            return null;
+        }
+        slot = findUpvalue(current, expr.name.lexeme());
+        if (slot >= 0) {
+            emit(OpCode.SET_UPVALUE, slot);
+            return null;
+        }
+        emitShort(OpCode.SET_GLOBAL, vm.globalSlot(expr.name.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.MINUS ? OpCode.NEGATE : OpCode.NOT);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case PLUS: emit(OpCode.ADD); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESSER: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+        int jump = emitJump(expr.operator.type == TokenType.OR
+                ? OpCode.JUMP_IF_TRUE_OR_POP : OpCode.JUMP_IF_FALSE_OR_POP);
+        compile(expr.right);
+        patchJump(jump);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.left);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(expr.right);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        compile(expr.mostRight);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr arg : expr.args) {
+            compile(arg);
+        }
+        line = expr.paren.line;
+        if (expr.args.size() > 255) {
+            reporter.error(expr.paren, "Can't have more than 255 arguments.");
+        }
+        emit(OpCode.CALL, expr.args.size());
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        function("lambda", expr);
+        return null;
+    }
+
+    private void function(String name, Expr.Function declaration) {
+        FunctionState state = new FunctionState(current,
+                new Prototype(name, declaration.args.size()));
+        state.scopeDepth = 1;
+        current = state;
+        for (Token param : declaration.args) {
+            declareLocal(param);
+        }
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+        current = state.enclosing;
+
+        state.prototype.setUpvalueCount(state.upvalues.size());
+        emitShort(OpCode.CLOSURE, makeConstant(state.prototype));
+        for (int upvalue : state.upvalues) {
+            emit(upvalue >> 8);
+            emit(upvalue & 0xff);
+        }
+    }
+
+    // The value to bind is on top of the stack.
+    private void defineVariable(Token name) {
+        if (current.scopeDepth == 0) {
+            emitShort(OpCode.DEFINE_GLOBAL, vm.globalSlot(name.lexeme()));
+            return;
+        }
+        int slot = findLocal(current, name.lexeme(), true);
+        if (slot >= 0) {
+            // Redeclaring a name in the same scope rebinds the existing slot,
+            // like defining it again in an Environment does.
+            emit(OpCode.SET_LOCAL, slot);
+            emit(OpCode.POP);
+            return;
+        }
+        addLocal(name);
+    }
+
+    private void declareLocal(Token name) {
+        int slot = findLocal(current, name.lexeme(), true);
+        if (slot < 0) addLocal(name);
+    }
+
+    private void addLocal(Token name) {
+        if (current.locals.size() == 256) {
+            reporter.error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.lexeme(), current.scopeDepth));
+    }
+
+    private int findLocal(FunctionState state, String name, boolean innermostOnly) {
+        for (int i = state.locals.size() - 1; i > 0; i--) {
+            Local local = state.locals.get(i);
+            if (innermostOnly && local.depth < state.scopeDepth) break;
+            if (local.name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // Upvalues are encoded as (isLocal << 8 | index) while compiling.
+    private int findUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = findLocal(state.enclosing, name, false);
+        if (local >= 0) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, (1 << 8) | local);
+        }
+        int upvalue = findUpvalue(state.enclosing, name);
+        if (upvalue >= 0) {
+            return addUpvalue(state, upvalue);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int upvalue) {
+        int index = state.upvalues.indexOf(upvalue);
+        if (index >= 0) return index;
+        if (state.upvalues.size() == 256) {
+            reporter.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(upvalue);
+        return state.upvalues.size() - 1;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        discardLocals(current.scopeDepth);
+        List<Local> locals = current.locals;
+        while (locals.size() > 1 && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    // Emits the pops for every local deeper than depth without forgetting
+    // them, so 'break' can leave the compile-time scopes intact.
+    private void discardLocals(int depth) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i > 0 && locals.get(i).depth > depth; i--) {
+            emit(locals.get(i).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private Chunk chunk() {
+        return current.prototype.chunk();
+    }
+
+    private void emit(int b) {
+        chunk().write(b, line);
+    }
+
+    private void emit(byte op, int operand) {
+        emit(op);
+        emit(operand);
+    }
+
+    private void emitShort(byte op, int operand) {
+        emit(op);
+        emit(operand >> 8);
+        emit(operand & 0xff);
+    }
+
+    private void emitConstant(Object value) {
+        emitShort(OpCode.CONSTANT, makeConstant(value));
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > 0xffff) {
+            reporter.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        emit(0xff);
+        emit(0xff);
+        return chunk().size() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().size() - offset - 2;
+        if (jump > 0xffff) {
+            reporter.error(line, "Too much code to jump over.");
+        }
+        chunk().patch(offset, jump >> 8);
+        chunk().patch(offset + 1, jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = chunk().size() - loopStart + 2;
+        if (offset > 0xffff) {
+            reporter.error(line, "Loop body too large.");
+        }
+        emit(offset >> 8);
+        emit(offset & 0xff);
+    }
+}
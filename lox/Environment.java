@@ -1,59 +1,76 @@
 package lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
+// One frame: a function call's parameters and every local of its body,
+// nested blocks included, plus the captures of the closure being run. A
+// closure copies the values it references when it's made, except for
+// locals that are reassigned, which live in a Cell the frame and its
+// closures share. So a closure keeps alive only what its body uses.
 class Environment {
-    private final Map<String, Object> values = new HashMap<>();
-    final Environment enclosing;
+    static final class Cell {
+        Object value;
 
-    Environment() {
-        enclosing = null;
+        Cell(Object value) {
+            this.value = value;
+        }
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    private final Object[] values;
+    final Object[] captures;
+
+    Environment(Object[] captures, int size) {
+        this.captures = captures;
+        this.values = new Object[size];
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    void define(int slot, Object value) {
+        values[slot] = value;
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    Object get(int slot) {
+        return values[slot];
+    }
+
+    Object get(Expr.Access access, int slot) {
+        switch (access) {
+            case LOCAL: return values[slot];
+            case LOCAL_CELL: return ((Cell)values[slot]).value;
+            case CAPTURE: return captures[slot];
+            default: return ((Cell)captures[slot]).value;
         }
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    // A captured local that is assigned always lives in a cell.
+    void assign(Expr.Access access, int slot, Object value) {
+        switch (access) {
+            case LOCAL: values[slot] = value; break;
+            case LOCAL_CELL: ((Cell)values[slot]).value = value; break;
+            default: ((Cell)captures[slot]).value = value;
         }
-        if (enclosing != null) return enclosing.get(name);
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object getAt(int distance, Token name) {
-        return ancestor(distance).values.get(name.lexeme);
+    // Stores a declaration's value the way the resolver said to.
+    void declare(Stmt.Store store, int slot, Object value) {
+        if (store == Stmt.Store.SLOT) {
+            values[slot] = value;
+        } else {
+            ((Cell)values[slot]).value = value;
+        }
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    // What a closure made in this frame captures.
+    Object[] capture(int[] sources) {
+        Object[] captured = new Object[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            int source = sources[i];
+            captured[i] = source >= 0 ? values[source] : captures[~source];
+        }
+        return captured;
     }
 
-    Environment ancestor(int distance) {
-        Environment env = this;
-        for (int i = 0; i < distance; i++) {
-            env = env.enclosing;
+    // Moves the parameters a closure reassigns into cells.
+    void box(int[] cells) {
+        for (int slot : cells) {
+            values[slot] = new Cell(values[slot]);
         }
-        return env;
     }
-}
\ No newline at end of file
+}
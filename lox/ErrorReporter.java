@@ -0,0 +1,59 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where one execution context reports its errors. The scanner, parser,
+// resolver and both engines each report to the one they're given instead
+// of to anything global, so scripts running on different threads only
+// ever see their own errors. Every error is kept, and printed as well
+// unless err is null.
+class ErrorReporter {
+    private final PrintStream err;
+    final List<LoxError> errors = new ArrayList<>();
+    boolean hadError;
+    boolean hadRuntimeError;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme() + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        runtimeError(error.getMessage(), error.token.line);
+    }
+
+    void runtimeError(String message, int line) {
+        add(new LoxError(LoxError.Kind.RUNTIME, line, "", message));
+        hadRuntimeError = true;
+    }
+
+    // Forgets earlier errors, as the prompt does after each line.
+    void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+        errors.clear();
+    }
+
+    private void report(int line, String where, String message) {
+        add(new LoxError(LoxError.Kind.COMPILE, line, where, message));
+        hadError = true;
+    }
+
+    private void add(LoxError error) {
+        errors.add(error);
+        if (err != null) err.println(error);
+    }
+}
@@ -3,6 +3,15 @@ package lox;
 import java.util.List;
 
 abstract class Expr {
+// Operand types a Unary or Binary node has seen so far. A node starts out
+// UNSEEN, specializes on its first evaluation and drops to MIXED for good
+// once the types change.
+enum Operands { UNSEEN, NUMBERS, STRINGS, MIXED }
+// Where a resolved variable lives: a global, a slot of the current frame
+// or an entry of the running closure's captures, either holding the value
+// itself or a Cell shared with the frames and closures that reassign it.
+enum Access { GLOBAL, LOCAL, LOCAL_CELL, CAPTURE, CAPTURE_CELL }
+
 interface Visitor<R> {
 R visitUnaryExpr(Unary expr);
 R visitBinaryExpr(Binary expr);
@@ -28,6 +37,7 @@ return visitor.visitUnaryExpr(this);
 
 final Token operator;
 final Expr right;
+Operands operands = Operands.UNSEEN;
 
 
 }
@@ -47,6 +57,7 @@ return visitor.visitBinaryExpr(this);
 final Expr left;
 final Token operator;
 final Expr right;
+Operands operands = Operands.UNSEEN;
 
 
 }
@@ -66,6 +77,8 @@ final Expr right;
         final Expr callee;
         final Token paren;
         final List<Expr> args;
+        // Last callee whose type and arity matched this site.
+        Object checkedCallee;
 
 
     }
@@ -83,6 +96,16 @@ final Expr right;
 
         final List<Token> args;
         final List<Stmt> body;
+        int slots;
+        // Where each capture comes from when the closure is made: a slot
+        // of the creating frame, or ~index into the creator's captures.
+        int[] captures;
+        // Parameter slots that are moved into a Cell on entry; null if none.
+        int[] cells;
+        // Calls plus loop iterations while interpreted, and the compiled
+        // body once that passes the interpreter's threshold.
+        int hotness;
+        volatile Jit.Code code;
 
 
     }
@@ -132,6 +155,8 @@ return visitor.visitVariableExpr(this);
 }
 
 final Token name;
+Access access = Access.GLOBAL;
+int slot;
 
 
 }
@@ -149,6 +174,8 @@ return visitor.visitAssignExpr(this);
 
 final Token name;
 final Expr value;
+Access access = Access.GLOBAL;
+int slot;
 
 
 }
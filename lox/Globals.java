@@ -0,0 +1,94 @@
+package lox;
+
+import java.util.Arrays;
+
+// Global variables, indexed by the symbol id of their name. Every site's
+// token carries that id from the scanner on, so it doubles as the site's
+// cached slot, and stays valid for any Globals instance. A slot that was
+// never defined holds UNDEFINED, so late binding and undefined-variable
+// errors behave as they did with a map.
+//
+// Slots live in fixed-size pages. Growing copies only the list of pages,
+// under a lock, and never moves a slot, so a task storing to a global while
+// another defines a new one can't lose its store. Symbol ids are shared by
+// every script in the process, so only the pages that hold a definition
+// are allocated; a script's globals don't pay for names it never defines.
+class Globals {
+    private static final Object UNDEFINED = new Object();
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private volatile Object[][] pages;
+
+    Globals() {
+        pages = new Object[0][];
+    }
+
+    // Starts out with the same definitions as other.
+    Globals(Globals other) {
+        Object[][] copy = other.pages.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] != null) copy[i] = copy[i].clone();
+        }
+        pages = copy;
+    }
+
+    void define(String name, Object value) {
+        define(Symbols.intern(name), value);
+    }
+
+    void define(Token name, Object value) {
+        define(name.symbol, value);
+    }
+
+    private void define(int symbol, Object value) {
+        Object[][] pages = this.pages;
+        int page = symbol >>> PAGE_BITS;
+        if (page >= pages.length || pages[page] == null) pages = grow(page);
+        pages[page][symbol & (PAGE_SIZE - 1)] = value;
+    }
+
+    // Adds the page, and room in the list for it if there isn't any.
+    private synchronized Object[][] grow(int page) {
+        Object[][] pages = this.pages;
+        if (page < pages.length && pages[page] != null) return pages;
+        pages = Arrays.copyOf(pages, Math.max(pages.length, page + 1));
+        pages[page] = new Object[PAGE_SIZE];
+        Arrays.fill(pages[page], UNDEFINED);
+        this.pages = pages;
+        return pages;
+    }
+
+    void assign(Token name, Object value) {
+        Object[][] pages = this.pages;
+        int page = name.symbol >>> PAGE_BITS;
+        int slot = name.symbol & (PAGE_SIZE - 1);
+        if (page < pages.length && pages[page] != null &&
+                pages[page][slot] != UNDEFINED) {
+            pages[page][slot] = value;
+            return;
+        }
+        throw new RuntimeError(name,
+                "Undefined variable '" + name.lexeme() + "'.");
+    }
+
+    // For code outside the interpreter, which has no token to look up.
+    Object get(String name) {
+        Object value = lookUp(Symbols.intern(name));
+        if (value != UNDEFINED) return value;
+        throw new IllegalArgumentException("Undefined variable '" + name + "'.");
+    }
+
+    Object get(Token name) {
+        Object value = lookUp(name.symbol);
+        if (value != UNDEFINED) return value;
+        throw new RuntimeError(name,
+                "Undefined variable '" + name.lexeme() + "'.");
+    }
+
+    private Object lookUp(int symbol) {
+        Object[][] pages = this.pages;
+        int page = symbol >>> PAGE_BITS;
+        if (page >= pages.length || pages[page] == null) return UNDEFINED;
+        return pages[page][symbol & (PAGE_SIZE - 1)];
+    }
+}
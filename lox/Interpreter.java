@@ -1,45 +1,98 @@
 package lox;
 
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Stack;
-import java.util.HashMap;
-import java.util.Map;
-
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    boolean shouldBreak, shouldContinue, shouldReturn;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    Object ret;
-
-    Interpreter() {
-        globals.define("time", new LoxCallable() {
-            @Override
-            public int arity() { return 0; }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
 
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
+import lox.natives.Native;
+import lox.natives.NativeError;
+import lox.natives.Natives;
+import lox.natives.Rope;
+
+// One execution context. Everything a running script changes lives here,
+// so each thread can run its own Interpreter over the same resolved tree.
+// The tree itself is only written by the type feedback in Expr.Operands and
+// the callee cache in Expr.Call. Those writes race between interpreters but
+// are harmless: every value they can hold is valid, and the specialized
+// paths check their operands and fall back to the generic ones.
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion>{
+    // The natives, defined once and copied into each context's globals.
+    private static final Globals STANDARD_LIBRARY = new Globals();
+    static {
+        for (Native function : Natives.standardLibrary()) {
+            STANDARD_LIBRARY.define(function.name(), new LoxNative(function));
+        }
+        STANDARD_LIBRARY.define("spawn", LoxTask.SPAWN);
+        STANDARD_LIBRARY.define("join", LoxTask.JOIN);
+        STANDARD_LIBRARY.define("memo", LoxMemo.MEMO);
+        STANDARD_LIBRARY.define("memoStats", LoxMemo.STATS);
+    }
+
+    final Globals globals;
+    private Environment environment = null;
+    private final ErrorReporter reporter;
+    private final PrintStream out;
+    // Set while profiling; it's told about every call and statement.
+    Profiler profiler;
+    // Calls plus loop iterations after which a function is compiled by
+    // Jit; negative to never compile.
+    int jitThreshold = Jit.THRESHOLD;
+    // The function whose body is being interpreted, which loop iterations
+    // are counted against.
+    private Expr.Function function;
+
+    // What a statement hands back to the statement containing it. Normal
+    // completion is null, so straight-line code only tests the result of
+    // each statement; break, continue and return travel up to the loop or
+    // call that consumes them.
+    static final class Completion {
+        static final Completion BREAK = new Completion(null);
+        static final Completion CONTINUE = new Completion(null);
+        static final Completion RETURN_NIL = new Completion(null);
+
+        final Object value;
+        // Set instead of value for a call in tail position, which the
+        // caller's LoxFunction.call makes itself rather than nesting a frame.
+        final LoxFunction callee;
+        final Object[] arguments;
+
+        Completion(Object value) {
+            this.value = value;
+            this.callee = null;
+            this.arguments = null;
+        }
+
+        Completion(LoxFunction callee, Object[] arguments) {
+            this.value = null;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+    }
+
+    Interpreter(ErrorReporter reporter, PrintStream out) {
+        this.globals = new Globals(STANDARD_LIBRARY);
+        this.reporter = reporter;
+        this.out = out;
+    }
 
+    // For a spawned task, which shares the globals and output. It never
+    // reports errors itself; they are thrown to whoever joins it.
+    Interpreter(Interpreter parent) {
+        this.globals = parent.globals;
+        this.reporter = parent.reporter;
+        this.out = parent.out;
+        this.jitThreshold = parent.jitThreshold;
     }
 
     void interpret(List<Stmt> statements) {
         try {
-            this.shouldBreak = false;
-            this.shouldContinue = false;
-            this.shouldReturn = false;
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
         }
     }
 
@@ -49,66 +102,78 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         Object res = evaluate(stmt.expression);
-        if (stmt.print) System.out.println(stringify(res));
+        if (stmt.print) print(res);
         return null;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         Object condition = evaluate(stmt.condition);
-        if (isBool(condition)) execute(stmt.thenBranch);
+        if (isBool(condition)) return execute(stmt.thenBranch);
         else if (stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isBool(evaluate(stmt.condition))) {
-            execute(stmt.body);
-            if (this.shouldBreak) {
-                break;
-            }
-            if (this.shouldContinue) {
-                this.shouldContinue = false;
-                continue;
+            if (function != null) function.hotness++;
+            Completion completion = execute(stmt.body);
+            if (completion != null && completion != Completion.CONTINUE) {
+                if (completion == Completion.BREAK) break;
+                return completion;
             }
+            if (stmt.increment != null) evaluate(stmt.increment);
         }
-        this.shouldBreak = false;
-        this.shouldContinue = false;
         return null;
     }
 
     @Override
-    public Void visitJumpStmt(Stmt.Jump stmt) {
-        if (stmt.jump.type == TokenType.BREAK) this.shouldBreak = true;
-        return null;
+    public Completion visitJumpStmt(Stmt.Jump stmt) {
+        return stmt.jump.type == TokenType.BREAK
+                ? Completion.BREAK : Completion.CONTINUE;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        //System.out.println("Visit return, value is " + stmt.value);
-        this.shouldReturn = true;
-        if (stmt.value == null) this.ret = null;
-        else{
-            this.ret = evaluate(stmt.value);
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return Completion.RETURN_NIL;
+        if (stmt.tailCall != null) {
+            Expr.Call call = stmt.tailCall;
+            Object callee = evaluate(call.callee);
+            Object[] args = new Object[call.args.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = evaluate(call.args.get(i));
+            }
+            LoxCallable fun = checkCallee(call, callee);
+            if (fun instanceof LoxFunction) {
+                return new Completion((LoxFunction)fun, args);
+            }
+            try {
+                return new Completion(fun.call(this, args));
+            } catch (NativeError error) {
+                throw new RuntimeError(call.paren, error.getMessage());
+            }
         }
-        return null;
+        return new Completion(evaluate(stmt.value));
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // Only the outermost blocks at the top level are frames; the rest
+        // keep their locals in the enclosing one.
+        if (stmt.slots < 0) {
+            return executeStatements(stmt.statements);
+        }
+        return executeBlock(stmt.statements, new Environment(null, stmt.slots));
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+    public Completion visitPrintStmt(Stmt.Print stmt) {
+        print(evaluate(stmt.expression));
         return null;
     }
 
@@ -118,10 +183,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     }
 
     private Object lookUpVariable(Token name, Expr.Variable expr) {
-        Integer distance = locals.get(expr);
-
-        if (distance != null) {
-            return environment.getAt(distance, name);
+        if (expr.access != Expr.Access.GLOBAL) {
+            return environment.get(expr.access, expr.slot);
         } else {
             return globals.get(name);
         }
@@ -130,9 +193,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.access != Expr.Access.GLOBAL) {
+            environment.assign(expr.access, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -140,22 +202,38 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        // The cell goes in first, so a closure in the initializer that
+        // references the variable shares it.
+        if (stmt.store == Stmt.Store.NEW_CELL) {
+            environment.define(stmt.slot, new Environment.Cell(null));
+        }
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.slot, stmt.store, value);
         return null;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction fun = new LoxFunction(stmt.name.lexeme, stmt.function, environment);
-        environment.define(stmt.name.lexeme, fun);
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.store == Stmt.Store.NEW_CELL) {
+            environment.define(stmt.slot, new Environment.Cell(null));
+        }
+        LoxFunction fun = new LoxFunction(stmt.name.lexeme(), stmt.function, environment);
+        define(stmt.name, stmt.slot, stmt.store, fun);
         return null;
     }
 
+    private void define(Token name, int slot, Stmt.Store store, Object value) {
+        if (slot >= 0) {
+            environment.declare(store, slot, value);
+        } else {
+            globals.define(name, value);
+        }
+    }
+
     @Override
     public Object visitFunctionExpr(Expr.Function expr) {
         LoxFunction fun = new LoxFunction("lambda", expr, environment);
@@ -171,21 +249,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            return !isBool(evaluate(expr.right));
+        }
+        if (expr.operands == Expr.Operands.NUMBERS) {
+            return unaryNumber(expr);
+        }
         Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS:
-                checkUnaryOperand(expr.operator, right);
-                return -(double)right;
-            case BANG:
-                return !isBool(right);
+        if (expr.operands == Expr.Operands.UNSEEN) {
+            expr.operands = right instanceof Double
+                    ? Expr.Operands.NUMBERS : Expr.Operands.MIXED;
         }
-
-        // Unreachable.
-        return null;
+        checkUnaryOperand(expr.operator, right);
+        return -(double)right;
     }
 
-    private boolean isBool(Object object) {
+    static boolean isBool(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -194,70 +273,249 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
         if (expr.operator.type == TokenType.OR) {
             if (isBool(left)) return left;
         } else {
             if (!isBool(left)) return left;
         }
-        return right;
+        return evaluate(expr.right);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-        List<Object> args = new ArrayList<>();
+        try {
+            return call(expr);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
 
-        for (Expr arg : expr.args) {
-            args.add(evaluate(arg));
+    private Object call(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        List<Expr> args = expr.args;
+        switch (args.size()) {
+            case 0:
+                return checkCallee(expr, callee).call0(this);
+            case 1: {
+                Object a = evaluate(args.get(0));
+                return checkCallee(expr, callee).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                return checkCallee(expr, callee).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                return checkCallee(expr, callee).call3(this, a, b, c);
+            }
+            default: {
+                Object[] arguments = new Object[args.size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = evaluate(args.get(i));
+                }
+                return checkCallee(expr, callee).call(this, arguments);
+            }
         }
+    }
+
+    // Runs after the arguments are evaluated. Each call site remembers the
+    // last callee that passed, so a site that keeps calling the same
+    // function skips the type and arity checks.
+    static LoxCallable checkCallee(Expr.Call expr, Object callee) {
+        if (callee == expr.checkedCallee) return (LoxCallable)callee;
         if (! (callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren,
                     "Can only call functions and classes.");
         }
         LoxCallable fun = (LoxCallable)callee;
-        if (args.size() != fun.arity()) {
+        if (expr.args.size() != fun.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                     fun.arity() + " arguments but got " +
-                    args.size() + ".");
+                    expr.args.size() + ".");
         }
-        //System.out.println("Visit Call " + fun);
-        this.shouldReturn = false;
-        return fun.call(this, args);
+        expr.checkedCallee = fun;
+        return fun;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        switch (expr.operands) {
+            case NUMBERS:
+                try {
+                    return binaryNumber(expr);
+                } catch (UnexpectedResult result) {
+                    return result.value;
+                }
+            case STRINGS: {
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    return Rope.concat((CharSequence)left, (CharSequence)right);
+                }
+                expr.operands = Expr.Operands.MIXED;
+                return binaryGeneric(expr.operator, left, right);
+            }
+            case UNSEEN: {
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                expr.operands = observe(expr.operator.type, left, right);
+                return binaryGeneric(expr.operator, left, right);
+            }
+            default:
+                return binaryGeneric(expr.operator, evaluate(expr.left), evaluate(expr.right));
+        }
+    }
+
+    private Expr.Operands observe(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return Expr.Operands.NUMBERS;
+        }
+        if (operator == TokenType.PLUS &&
+                left instanceof CharSequence && right instanceof CharSequence) {
+            return Expr.Operands.STRINGS;
+        }
+        return Expr.Operands.MIXED;
+    }
 
+    // Thrown when a node specialized for numbers produces something else.
+    // Carries the already computed value so nothing is evaluated twice.
+    static class UnexpectedResult extends RuntimeException {
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    // Evaluates expr without boxing when it is a number literal or a
+    // number-specialized arithmetic node, so nested arithmetic only boxes
+    // its final result.
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.operands == Expr.Operands.NUMBERS &&
+                    isArithmetic(binary.operator.type)) {
+                return arithmetic(binary);
+            }
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operands == Expr.Operands.NUMBERS) {
+                return unaryNumber(unary);
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping)expr).expression);
+        }
+        Object value = evaluate(expr);
+        if (value instanceof Double) return (double)value;
+        throw new UnexpectedResult(value);
+    }
+
+    private double unaryNumber(Expr.Unary expr) {
+        try {
+            return -evaluateNumber(expr.right);
+        } catch (UnexpectedResult result) {
+            expr.operands = Expr.Operands.MIXED;
+            checkUnaryOperand(expr.operator, result.value);
+            return -(double)result.value;
+        }
+    }
+
+    private Object binaryNumber(Expr.Binary expr) {
+        if (isArithmetic(expr.operator.type)) {
+            return arithmetic(expr);
+        }
+        return comparison(expr);
+    }
+
+    private double arithmetic(Expr.Binary expr) {
+        double left;
+        double right;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult result) {
+            throw despecialize(expr, result.value, evaluate(expr.right));
+        }
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult result) {
+            throw despecialize(expr, left, result.value);
+        }
+        switch (expr.operator.type) {
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case STAR: return left * right;
+            default: return left / right;
+        }
+    }
+
+    private boolean comparison(Expr.Binary expr) {
+        double left;
+        double right;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult result) {
+            throw despecialize(expr, result.value, evaluate(expr.right));
+        }
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult result) {
+            throw despecialize(expr, left, result.value);
+        }
         switch (expr.operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESSER: return left < right;
+            case LESS_EQUAL: return left <= right;
+            // Same as Double.equals, which isEqual uses for boxed numbers.
+            case EQUAL_EQUAL:
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            default:
+                return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+        }
+    }
+
+    private UnexpectedResult despecialize(Expr.Binary expr, Object left, Object right) {
+        expr.operands = Expr.Operands.MIXED;
+        return new UnexpectedResult(binaryGeneric(expr.operator, left, right));
+    }
+
+    private boolean isArithmetic(TokenType type) {
+        return type == TokenType.MINUS || type == TokenType.PLUS ||
+                type == TokenType.STAR || type == TokenType.SLASH;
+    }
+
+    static Object binaryGeneric(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case MINUS:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left - (double)right;
             case PLUS:
                 if (left instanceof Double && right instanceof Double)
                     return (double)left + (double)right;
-                if (left instanceof String && right instanceof String)
-                    return (String)left + (String)right;
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                if (left instanceof CharSequence && right instanceof CharSequence)
+                    return Rope.concat((CharSequence)left, (CharSequence)right);
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
             case STAR:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left * (double)right;
             case SLASH:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left / (double)right;
             case GREATER:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESSER:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkBinaryOperands(expr.operator, left, right);
+                checkBinaryOperands(operator, left, right);
                 return (double)left <= (double)right;
             case EQUAL_EQUAL:
                 return isEqual(left, right);
@@ -268,10 +526,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return null;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         // nil is only equal to nil.
         if (a == null && b == null) return true;
         if (a == null) return false;
+        // Strings may be ropes, so compare their contents.
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return a.toString().equals(b.toString());
+        }
 
         return a.equals(b);
     }
@@ -279,40 +541,51 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
         Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-        Object mostRight = evaluate(expr.mostRight);
-        if (right instanceof Double && mostRight instanceof Double) {
-            return isBool(left) ? (double)right: (double)mostRight;
-        }
-        if (right instanceof String && mostRight instanceof String) {
-            return isBool(left) ? (String)right: (String)mostRight;
-        }
-        return null;
+        return isBool(left) ? evaluate(expr.right) : evaluate(expr.mostRight);
     }
 
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        if (!this.shouldBreak && !this.shouldContinue && !this.shouldReturn) stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        if (profiler != null) profiler.line(stmt.line);
+        return stmt.accept(this);
     }
 
-    public void executeBlock(List<Stmt> statements, Environment env) {
+    private Completion executeStatements(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Completion completion = execute(statements.get(i));
+            if (completion != null) return completion;
+        }
+        return null;
+    }
+
+    Completion executeBody(Expr.Function declaration, Environment env) {
+        Expr.Function previous = function;
+        try {
+            function = declaration;
+            return executeBlock(declaration.body, env);
+        } finally {
+            function = previous;
+        }
+    }
+
+    public Completion executeBlock(List<Stmt> statements, Environment env) {
         Environment previous = this.environment;
         try {
             this.environment = env;
-            for (Stmt stmt : statements) {
-
-                if (this.shouldBreak || this.shouldContinue || this.shouldReturn) break;
-                stmt.accept(this);
-            }
+            return executeStatements(statements);
         } finally {
             this.environment = previous;
         }
     }
 
-    private String stringify(Object object) {
+    void print(Object value) {
+        out.println(stringify(value));
+    }
+
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         // Hack. Work around Java adding ".0" to integer-valued doubles.
@@ -327,16 +600,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return object.toString();
     }
 
-    private void checkUnaryOperand(Token operator, Object right) {
+    static void checkUnaryOperand(Token operator, Object right) {
         if (right instanceof Double) return;
         throw new RuntimeError(operator, "operand must be double");
     }
-    private void checkBinaryOperands(Token operator, Object left, Object right) {
+    private static void checkBinaryOperands(Token operator, Object left, Object right) {
         if (right instanceof Double && left instanceof Double) return;
         throw new RuntimeError(operator, "operands must be double");
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
 }
\ No newline at end of file
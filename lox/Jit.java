@@ -0,0 +1,658 @@
+package lox;
+
+import java.util.List;
+
+import lox.Interpreter.Completion;
+import lox.Interpreter.UnexpectedResult;
+import lox.natives.NativeError;
+import lox.natives.Rope;
+
+// The tree-walker's second tier. Once a function's calls and loop
+// iterations pass the interpreter's threshold, its body is compiled into
+// a tree of small Java objects, one per node, each doing only what its
+// node needs. The operator, where a variable lives, whether a block needs an
+// Environment and what the type feedback saw are decided once, here,
+// instead of on every evaluation, and HotSpot gets call sites it can
+// inline. Compiled code hangs off the shared tree, so it keeps no state
+// of any one run, and no values from one: callees are looked up on every
+// call, like the interpreter does.
+final class Jit implements Expr.Visitor<Jit.Node>, Stmt.Visitor<Jit.Step> {
+    static final int THRESHOLD = 1000;
+
+    interface Node {
+        Object eval(Interpreter interpreter, Environment environment);
+
+        // Overridden by nodes that can make a number without boxing it.
+        default double number(Interpreter interpreter, Environment environment) {
+            Object value = eval(interpreter, environment);
+            if (value instanceof Double) return (double)value;
+            throw new UnexpectedResult(value);
+        }
+
+        // Overridden by nodes that can make a condition without boxing it.
+        default boolean truthy(Interpreter interpreter, Environment environment) {
+            return Interpreter.isBool(eval(interpreter, environment));
+        }
+    }
+
+    interface Step {
+        Completion exec(Interpreter interpreter, Environment environment);
+    }
+
+    static final class Code {
+        private final Step body;
+
+        private Code(Step body) {
+            this.body = body;
+        }
+
+        Completion run(Interpreter interpreter, Environment environment) {
+            return body.exec(interpreter, environment);
+        }
+    }
+
+    private Jit() {}
+
+    static Code compile(Expr.Function declaration) {
+        Code code = new Code(new Jit().statements(declaration.body));
+        declaration.code = code;
+        return code;
+    }
+
+    private Node compile(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Step compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Step statements(List<Stmt> statements) {
+        if (statements.isEmpty()) return (interpreter, environment) -> null;
+        if (statements.size() == 1) return compile(statements.get(0));
+        Step[] steps = new Step[statements.size()];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = compile(statements.get(i));
+        }
+        return (interpreter, environment) -> {
+            for (Step step : steps) {
+                Completion completion = step.exec(interpreter, environment);
+                if (completion != null) return completion;
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Step visitBlockStmt(Stmt.Block stmt) {
+        Step body = statements(stmt.statements);
+        if (stmt.slots < 0) return body;
+        int slots = stmt.slots;
+        return (interpreter, environment) ->
+                body.exec(interpreter, new Environment(null, slots));
+    }
+
+    @Override
+    public Step visitExpressionStmt(Stmt.Expression stmt) {
+        Node expression = compile(stmt.expression);
+        if (stmt.print) return print(expression);
+        return (interpreter, environment) -> {
+            expression.eval(interpreter, environment);
+            return null;
+        };
+    }
+
+    @Override
+    public Step visitPrintStmt(Stmt.Print stmt) {
+        return print(compile(stmt.expression));
+    }
+
+    private static Step print(Node expression) {
+        return (interpreter, environment) -> {
+            interpreter.print(expression.eval(interpreter, environment));
+            return null;
+        };
+    }
+
+    @Override
+    public Step visitVarStmt(Stmt.Var stmt) {
+        Node initializer = compile(stmt.initializer);
+        if (initializer == null) initializer = (interpreter, environment) -> null;
+        return define(stmt.name, stmt.slot, stmt.store, initializer);
+    }
+
+    @Override
+    public Step visitFunctionStmt(Stmt.Function stmt) {
+        String name = stmt.name.lexeme();
+        Expr.Function declaration = stmt.function;
+        return define(stmt.name, stmt.slot, stmt.store, (interpreter, environment) ->
+                new LoxFunction(name, declaration, environment));
+    }
+
+    private static Step define(Token name, int slot, Stmt.Store store, Node value) {
+        switch (store) {
+            case NEW_CELL:
+                return (interpreter, environment) -> {
+                    Environment.Cell cell = new Environment.Cell(null);
+                    environment.define(slot, cell);
+                    cell.value = value.eval(interpreter, environment);
+                    return null;
+                };
+            case CELL:
+                return (interpreter, environment) -> {
+                    Object result = value.eval(interpreter, environment);
+                    ((Environment.Cell)environment.get(slot)).value = result;
+                    return null;
+                };
+        }
+        if (slot >= 0) {
+            return (interpreter, environment) -> {
+                environment.define(slot, value.eval(interpreter, environment));
+                return null;
+            };
+        }
+        return (interpreter, environment) -> {
+            interpreter.globals.define(name, value.eval(interpreter, environment));
+            return null;
+        };
+    }
+
+    @Override
+    public Step visitIfStmt(Stmt.If stmt) {
+        Node condition = compile(stmt.condition);
+        Step thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return (interpreter, environment) -> condition.truthy(interpreter, environment)
+                    ? thenBranch.exec(interpreter, environment) : null;
+        }
+        Step elseBranch = compile(stmt.elseBranch);
+        return (interpreter, environment) -> condition.truthy(interpreter, environment)
+                ? thenBranch.exec(interpreter, environment)
+                : elseBranch.exec(interpreter, environment);
+    }
+
+    @Override
+    public Step visitWhileStmt(Stmt.While stmt) {
+        Node condition = compile(stmt.condition);
+        Step body = compile(stmt.body);
+        Node increment = compile(stmt.increment);
+        return (interpreter, environment) -> {
+            while (condition.truthy(interpreter, environment)) {
+                Completion completion = body.exec(interpreter, environment);
+                if (completion != null && completion != Completion.CONTINUE) {
+                    if (completion == Completion.BREAK) break;
+                    return completion;
+                }
+                if (increment != null) increment.eval(interpreter, environment);
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public Step visitJumpStmt(Stmt.Jump stmt) {
+        Completion jump = stmt.jump.type == TokenType.BREAK
+                ? Completion.BREAK : Completion.CONTINUE;
+        return (interpreter, environment) -> jump;
+    }
+
+    @Override
+    public Step visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return (interpreter, environment) -> Completion.RETURN_NIL;
+        if (stmt.tailCall == null) {
+            Node value = compile(stmt.value);
+            return (interpreter, environment) ->
+                    new Completion(value.eval(interpreter, environment));
+        }
+        Expr.Call call = stmt.tailCall;
+        Node callee = compile(call.callee);
+        Node[] args = arguments(call);
+        return (interpreter, environment) -> {
+            Object function = callee.eval(interpreter, environment);
+            Object[] arguments = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                arguments[i] = args[i].eval(interpreter, environment);
+            }
+            LoxCallable fun = Interpreter.checkCallee(call, function);
+            if (fun instanceof LoxFunction) {
+                return new Completion((LoxFunction)fun, arguments);
+            }
+            try {
+                return new Completion(fun.call(interpreter, arguments));
+            } catch (NativeError error) {
+                throw new RuntimeError(call.paren, error.getMessage());
+            }
+        };
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value instanceof Double) return new NumberLiteral((double)value);
+        return (interpreter, environment) -> value;
+    }
+
+    private static final class NumberLiteral implements Node {
+        private final double value;
+        private final Double boxed;
+
+        NumberLiteral(double value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        public Object eval(Interpreter interpreter, Environment environment) {
+            return boxed;
+        }
+
+        @Override
+        public double number(Interpreter interpreter, Environment environment) {
+            return value;
+        }
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        int slot = expr.slot;
+        switch (expr.access) {
+            case GLOBAL: {
+                Token name = expr.name;
+                return (interpreter, environment) -> interpreter.globals.get(name);
+            }
+            case LOCAL:
+                return (interpreter, environment) -> environment.get(slot);
+            case LOCAL_CELL:
+                return (interpreter, environment) ->
+                        ((Environment.Cell)environment.get(slot)).value;
+            case CAPTURE:
+                return (interpreter, environment) -> environment.captures[slot];
+            default:
+                return (interpreter, environment) ->
+                        ((Environment.Cell)environment.captures[slot]).value;
+        }
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        int slot = expr.slot;
+        if (expr.access == Expr.Access.GLOBAL) {
+            Token name = expr.name;
+            return (interpreter, environment) -> {
+                Object result = value.eval(interpreter, environment);
+                interpreter.globals.assign(name, result);
+                return result;
+            };
+        }
+        if (expr.access == Expr.Access.LOCAL) {
+            return (interpreter, environment) -> {
+                Object result = value.eval(interpreter, environment);
+                environment.define(slot, result);
+                return result;
+            };
+        }
+        Expr.Access access = expr.access;
+        return (interpreter, environment) -> {
+            Object result = value.eval(interpreter, environment);
+            environment.assign(access, slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            return new Node() {
+                @Override
+                public Object eval(Interpreter interpreter, Environment environment) {
+                    return !right.truthy(interpreter, environment);
+                }
+
+                @Override
+                public boolean truthy(Interpreter interpreter, Environment environment) {
+                    return !right.truthy(interpreter, environment);
+                }
+            };
+        }
+        Token operator = expr.operator;
+        return new NumberNode() {
+            @Override
+            public double number(Interpreter interpreter, Environment environment) {
+                try {
+                    return -right.number(interpreter, environment);
+                } catch (UnexpectedResult result) {
+                    Interpreter.checkUnaryOperand(operator, result.value);
+                    return -(double)result.value;
+                }
+            }
+        };
+    }
+
+    // A node whose value is always a number unless it throws, so eval
+    // only has to box what number makes.
+    private abstract static class NumberNode implements Node {
+        @Override
+        public Object eval(Interpreter interpreter, Environment environment) {
+            return number(interpreter, environment);
+        }
+
+        @Override
+        public abstract double number(Interpreter interpreter, Environment environment);
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return new Arithmetic(operator, left, right);
+            case PLUS:
+                if (expr.operands == Expr.Operands.NUMBERS) {
+                    return new Arithmetic(operator, left, right);
+                }
+                if (expr.operands == Expr.Operands.STRINGS) {
+                    return (interpreter, environment) -> {
+                        Object a = left.eval(interpreter, environment);
+                        Object b = right.eval(interpreter, environment);
+                        if (a instanceof CharSequence && b instanceof CharSequence) {
+                            return Rope.concat((CharSequence)a, (CharSequence)b);
+                        }
+                        return Interpreter.binaryGeneric(operator, a, b);
+                    };
+                }
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESSER:
+            case LESS_EQUAL:
+                return new Comparison(operator, left, right);
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                if (expr.operands == Expr.Operands.NUMBERS) {
+                    return new Comparison(operator, left, right);
+                }
+                break;
+        }
+        return (interpreter, environment) -> Interpreter.binaryGeneric(operator,
+                left.eval(interpreter, environment), right.eval(interpreter, environment));
+    }
+
+    // Unboxed arithmetic. An operand that isn't a number comes back as an
+    // UnexpectedResult, and the operator is then applied generically.
+    private static final class Arithmetic implements Node {
+        private final Token operator;
+        private final TokenType type;
+        private final Node left;
+        private final Node right;
+
+        Arithmetic(Token operator, Node left, Node right) {
+            this.operator = operator;
+            this.type = operator.type;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Interpreter interpreter, Environment environment) {
+            try {
+                return number(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+
+        @Override
+        public double number(Interpreter interpreter, Environment environment) {
+            double a;
+            try {
+                a = left.number(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                throw generic(result.value, right.eval(interpreter, environment));
+            }
+            double b;
+            try {
+                b = right.number(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                throw generic(a, result.value);
+            }
+            switch (type) {
+                case MINUS: return a - b;
+                case PLUS: return a + b;
+                case STAR: return a * b;
+                default: return a / b;
+            }
+        }
+
+        private UnexpectedResult generic(Object a, Object b) {
+            return new UnexpectedResult(Interpreter.binaryGeneric(operator, a, b));
+        }
+    }
+
+    // Unboxed comparison; mostly used as a condition, through truthy.
+    private static final class Comparison implements Node {
+        private final Token operator;
+        private final TokenType type;
+        private final Node left;
+        private final Node right;
+
+        Comparison(Token operator, Node left, Node right) {
+            this.operator = operator;
+            this.type = operator.type;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Interpreter interpreter, Environment environment) {
+            try {
+                return compare(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                return result.value;
+            }
+        }
+
+        @Override
+        public boolean truthy(Interpreter interpreter, Environment environment) {
+            try {
+                return compare(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                return Interpreter.isBool(result.value);
+            }
+        }
+
+        private boolean compare(Interpreter interpreter, Environment environment) {
+            double a;
+            try {
+                a = left.number(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                throw generic(result.value, right.eval(interpreter, environment));
+            }
+            double b;
+            try {
+                b = right.number(interpreter, environment);
+            } catch (UnexpectedResult result) {
+                throw generic(a, result.value);
+            }
+            switch (type) {
+                case GREATER: return a > b;
+                case GREATER_EQUAL: return a >= b;
+                case LESSER: return a < b;
+                case LESS_EQUAL: return a <= b;
+                case EQUAL_EQUAL:
+                    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+                default:
+                    return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+            }
+        }
+
+        // Only returns for == and !=; the others throw a RuntimeError.
+        private UnexpectedResult generic(Object a, Object b) {
+            return new UnexpectedResult(Interpreter.binaryGeneric(operator, a, b));
+        }
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return new Node() {
+                @Override
+                public Object eval(Interpreter interpreter, Environment environment) {
+                    Object value = left.eval(interpreter, environment);
+                    if (Interpreter.isBool(value)) return value;
+                    return right.eval(interpreter, environment);
+                }
+
+                @Override
+                public boolean truthy(Interpreter interpreter, Environment environment) {
+                    return left.truthy(interpreter, environment) ||
+                            right.truthy(interpreter, environment);
+                }
+            };
+        }
+        return new Node() {
+            @Override
+            public Object eval(Interpreter interpreter, Environment environment) {
+                Object value = left.eval(interpreter, environment);
+                if (!Interpreter.isBool(value)) return value;
+                return right.eval(interpreter, environment);
+            }
+
+            @Override
+            public boolean truthy(Interpreter interpreter, Environment environment) {
+                return left.truthy(interpreter, environment) &&
+                        right.truthy(interpreter, environment);
+            }
+        };
+    }
+
+    @Override
+    public Node visitTernaryExpr(Expr.Ternary expr) {
+        Node condition = compile(expr.left);
+        Node then = compile(expr.right);
+        Node otherwise = compile(expr.mostRight);
+        return (interpreter, environment) -> condition.truthy(interpreter, environment)
+                ? then.eval(interpreter, environment)
+                : otherwise.eval(interpreter, environment);
+    }
+
+    @Override
+    public Node visitFunctionExpr(Expr.Function expr) {
+        return (interpreter, environment) -> new LoxFunction("lambda", expr, environment);
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        Node callee = compile(expr.callee);
+        Node[] args = arguments(expr);
+        // One class per arity keeps each small enough for HotSpot to inline.
+        switch (args.length) {
+            case 0:
+                return new Call(expr, callee) {
+                    @Override
+                    Object call(Interpreter interpreter, Environment environment,
+                                Object function) {
+                        return check(function).call0(interpreter);
+                    }
+                };
+            case 1: {
+                Node first = args[0];
+                return new Call(expr, callee) {
+                    @Override
+                    Object call(Interpreter interpreter, Environment environment,
+                                Object function) {
+                        Object a = first.eval(interpreter, environment);
+                        return check(function).call1(interpreter, a);
+                    }
+                };
+            }
+            case 2: {
+                Node first = args[0];
+                Node second = args[1];
+                return new Call(expr, callee) {
+                    @Override
+                    Object call(Interpreter interpreter, Environment environment,
+                                Object function) {
+                        Object a = first.eval(interpreter, environment);
+                        Object b = second.eval(interpreter, environment);
+                        return check(function).call2(interpreter, a, b);
+                    }
+                };
+            }
+            case 3: {
+                Node first = args[0];
+                Node second = args[1];
+                Node third = args[2];
+                return new Call(expr, callee) {
+                    @Override
+                    Object call(Interpreter interpreter, Environment environment,
+                                Object function) {
+                        Object a = first.eval(interpreter, environment);
+                        Object b = second.eval(interpreter, environment);
+                        Object c = third.eval(interpreter, environment);
+                        return check(function).call3(interpreter, a, b, c);
+                    }
+                };
+            }
+            default:
+                return new Call(expr, callee) {
+                    @Override
+                    Object call(Interpreter interpreter, Environment environment,
+                                Object function) {
+                        Object[] arguments = new Object[args.length];
+                        for (int i = 0; i < arguments.length; i++) {
+                            arguments[i] = args[i].eval(interpreter, environment);
+                        }
+                        return check(function).call(interpreter, arguments);
+                    }
+                };
+        }
+    }
+
+    private Node[] arguments(Expr.Call call) {
+        Node[] args = new Node[call.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(call.args.get(i));
+        }
+        return args;
+    }
+
+    private abstract static class Call implements Node {
+        private final Expr.Call expr;
+        private final Node callee;
+
+        Call(Expr.Call expr, Node callee) {
+            this.expr = expr;
+            this.callee = callee;
+        }
+
+        @Override
+        public Object eval(Interpreter interpreter, Environment environment) {
+            try {
+                return call(interpreter, environment, callee.eval(interpreter, environment));
+            } catch (NativeError error) {
+                throw new RuntimeError(expr.paren, error.getMessage());
+            }
+        }
+
+        // Evaluates the arguments and makes the call.
+        abstract Object call(Interpreter interpreter, Environment environment,
+                             Object function);
+
+        LoxCallable check(Object function) {
+            return Interpreter.checkCallee(expr, function);
+        }
+    }
+}
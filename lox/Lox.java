@@ -3,32 +3,141 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 
+import lox.vm.Prototype;
+import lox.vm.VM;
+import lox.vm.VmError;
+
 public class Lox {
-  static boolean hadError;
-  static boolean hadRuntimeError;
-  private static final Interpreter interpreter = new Interpreter();
+  private static final ErrorReporter reporter = new ErrorReporter(System.err);
+  private static final Interpreter interpreter = new Interpreter(reporter, System.out);
+  private static VM vm;
+  private static boolean stream;
+  private static ScriptCache cache;
+  private static Optimizer optimizer = Optimizer.parse("all");
+  private static Path profile;
+  private static int parsePieces;
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+    List<String> rest = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.equals("--engine=vm")) {
+        vm = new VM();
+      } else if (arg.equals("--engine=tree")) {
+        vm = null;
+      } else if (arg.equals("--stream")) {
+        stream = true;
+      } else if (arg.startsWith("--optimize=")) {
+        try {
+          optimizer = Optimizer.parse(arg.substring("--optimize=".length()));
+        } catch (IllegalArgumentException e) {
+          rest.add(arg);
+        }
+      } else if (arg.equals("--jit=off")) {
+        interpreter.jitThreshold = -1;
+      } else if (arg.matches("--jit=\\d+")) {
+        interpreter.jitThreshold = Integer.parseInt(arg.substring("--jit=".length()));
+      } else if (arg.equals("--profile")) {
+        profile = Paths.get("lox-profile.folded");
+      } else if (arg.startsWith("--profile=")) {
+        profile = Paths.get(arg.substring("--profile=".length()));
+      } else if (arg.matches("--parse-pieces=\\d+")) {
+        parsePieces = Integer.parseInt(arg.substring("--parse-pieces=".length()));
+      } else if (arg.startsWith("--cache=")) {
+        cache = new ScriptCache(Paths.get(arg.substring("--cache=".length())));
+      } else {
+        rest.add(arg);
+      }
+    }
+    if (rest.size() > 1 || (!rest.isEmpty() && rest.get(0).startsWith("--"))) {
+      System.out.println("Usage: jlox [--engine=tree|vm] [--stream] [--cache=dir]\n" +
+              "            [--optimize=all|none|fold,prune,flatten] [--jit=off|calls]\n" +
+              "            [--profile[=stacks.folded]] [--parse-pieces=n] [script]");
+      System.exit(64);
+    } else if (profile != null && vm != null) {
+      System.out.println("--profile only works with --engine=tree.");
       System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    } else if (rest.size() == 1 && stream) {
+      runStream(rest.get(0));
+    } else if (rest.size() == 1) {
+      runFile(rest.get(0));
     } else {
       runPrompt();
     }
   }
   private static void runFile(String path) throws IOException {
       byte[] bytes = Files.readAllBytes(Paths.get(path));
-      run(new String(bytes, Charset.defaultCharset()));
-      if (hadError) System.exit(65);
-      if (hadRuntimeError) System.exit(70);
+      Profiler profiler = startProfiler();
+      if (cache == null) {
+        run(new String(bytes, Charset.defaultCharset()));
+      } else {
+        runCached(bytes);
+      }
+      stopProfiler(profiler);
+      if (reporter.hadError) System.exit(65);
+      if (reporter.hadRuntimeError) System.exit(70);
+  }
+
+  // A hit goes straight to execution with the stored resolved AST. A miss
+  // stores the AST before it runs, since running specializes its nodes.
+  private static void runCached(byte[] bytes) {
+    String key = ScriptCache.key(bytes, optimizer.toString());
+    List<Stmt> statements = cache.load(key);
+    if (statements == null) {
+      statements = parse(new String(bytes, Charset.defaultCharset()));
+      if (statements == null) return;
+      statements = resolve(statements);
+      if (statements == null) return;
+      cache.store(key, statements);
+    }
+    execute(statements);
+  }
+
+  // Runs each top-level declaration as soon as it's parsed, so memory is
+  // bounded by the largest declaration instead of the whole file. Unlike
+  // runFile, statements before a syntax error have already run by the
+  // time it's reported; nothing runs after it.
+  private static void runStream(String path) throws IOException {
+    Profiler profiler = startProfiler();
+    try (Reader reader = new InputStreamReader(
+            Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+      Parser parser = new Parser(new Scanner(reader, reporter), reporter);
+      while (parser.hasNext()) {
+        Stmt statement = parser.next();
+        if (reporter.hadError || reporter.hadRuntimeError) continue;
+        List<Stmt> statements = resolve(Collections.singletonList(statement));
+        if (statements != null) execute(statements);
+      }
+    }
+    stopProfiler(profiler);
+    if (reporter.hadError) System.exit(65);
+    if (reporter.hadRuntimeError) System.exit(70);
+  }
+
+  // Samples every millisecond; front-end time is included.
+  private static Profiler startProfiler() {
+    if (profile == null) return null;
+    Profiler profiler = new Profiler(1_000_000);
+    interpreter.profiler = profiler;
+    profiler.start();
+    return profiler;
+  }
+
+  private static void stopProfiler(Profiler profiler) throws IOException {
+    if (profiler == null) return;
+    profiler.stop();
+    interpreter.profiler = null;
+    profiler.report(System.err);
+    profiler.writeStacks(profile);
+    System.err.println("\nCollapsed stacks written to " + profile + ".");
   }
 
   private static void runPrompt() throws IOException {
@@ -38,45 +147,46 @@ public class Lox {
     for (;;) {
       System.out.print("> ");
       run(reader.readLine());
-      hadError = false;
+      reporter.reset();
     }
   }
 
   private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
-    if (hadError) return;
-    Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
-
-    if (hadError) return;
-    interpreter.interpret(statements);
+    List<Stmt> statements = parse(source);
+    if (statements != null) statements = resolve(statements);
+    if (statements != null) execute(statements);
   }
 
-  static void error(int line, String message) {
-    report(line, "", message);
+  private static List<Stmt> parse(String source) {
+    Scanner scanner = new Scanner(source, reporter);
+    List<Token> tokens = scanner.scanTokens();
+    List<Stmt> statements = ParallelParser.parse(tokens, reporter, parsePieces);
+    return reporter.hadError ? null : statements;
   }
 
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-            "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
+  // Returns the optimized statements, or null if resolution failed.
+  private static List<Stmt> resolve(List<Stmt> statements) {
+    Resolver resolver = new Resolver(reporter);
+    resolver.resolve(statements);
+    return reporter.hadError ? null : optimizer.optimize(statements);
   }
 
-  private static void report(int line, String where, String message) {
-    System.err.println(
-            "[line " + line + "] Error " + where + "; " + message
-    );
-    hadError = true;
+  private static void execute(List<Stmt> statements) {
+    if (vm != null) {
+      runVm(statements);
+    } else {
+      interpreter.interpret(statements);
+    }
   }
 
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
+  private static void runVm(List<Stmt> statements) {
+    Compiler compiler = new Compiler(vm, reporter);
+    Prototype script = compiler.compile(statements);
+    if (reporter.hadError) return;
+    try {
+      vm.interpret(script);
+    } catch (VmError error) {
+      reporter.runtimeError(error.getMessage(), error.line);
     }
   }
-}
\ No newline at end of file
+}
@@ -1,8 +1,27 @@
 package lox;
 
-import java.util.List;
-
+// Calls with up to three arguments go through the fixed-arity entry points
+// so neither the caller nor the callee needs an argument array. Callables
+// only have to implement the array form; the others default to it.
 interface LoxCallable {
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object[] NO_ARGUMENTS = new Object[0];
+
+    Object call(Interpreter interpreter, Object[] arguments);
     int arity();
-}
\ No newline at end of file
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] {a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] {a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] {a, b, c});
+    }
+}
@@ -0,0 +1,33 @@
+package lox;
+
+import java.util.List;
+
+// Entry point for embedding Lox. compile runs the front end once; the
+// CompiledScript it returns can then be run any number of times, from any
+// number of threads at once, each run in a fresh context. Scripts run on
+// the tree-walker. Identifier names are interned in a table shared by the
+// whole process, which keeps every distinct name a host has compiled for
+// as long as the process lives.
+public final class LoxEngine {
+    private final Optimizer optimizer;
+
+    public LoxEngine() {
+        this("all");
+    }
+
+    // Takes the same pass list as --optimize.
+    public LoxEngine(String optimize) {
+        this.optimizer = Optimizer.parse(optimize);
+    }
+
+    // Throws LoxException, holding every error found, for a script that
+    // doesn't compile. Nothing is printed.
+    public CompiledScript compile(String source) {
+        ErrorReporter reporter = new ErrorReporter(null);
+        List<Token> tokens = new Scanner(source, reporter).scanTokens();
+        List<Stmt> statements = ParallelParser.parse(tokens, reporter);
+        if (!reporter.hadError) new Resolver(reporter).resolve(statements);
+        if (reporter.hadError) throw new LoxException(reporter.errors);
+        return new CompiledScript(optimizer.optimize(statements));
+    }
+}
@@ -0,0 +1,30 @@
+package lox;
+
+// An error from compiling or running a script, as embedders get it back.
+// toString gives the text the command line prints for it.
+public final class LoxError {
+    public enum Kind {
+        // Found by the scanner, parser or resolver; nothing ran.
+        COMPILE,
+        RUNTIME
+    }
+
+    public final Kind kind;
+    public final int line;
+    public final String message;
+    // Where on the line, like " at 'x'"; empty when there's no token.
+    private final String where;
+
+    LoxError(Kind kind, int line, String where, String message) {
+        this.kind = kind;
+        this.line = line;
+        this.where = where;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.RUNTIME) return message + "\n[line " + line + "]";
+        return "[line " + line + "] Error " + where + "; " + message;
+    }
+}
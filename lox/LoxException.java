@@ -0,0 +1,14 @@
+package lox;
+
+import java.util.List;
+
+// Thrown by LoxEngine.compile for a script with errors. Holds all of them,
+// not just the first.
+public class LoxException extends RuntimeException {
+    public final List<LoxError> errors;
+
+    LoxException(List<LoxError> errors) {
+        super(errors.get(0).toString());
+        this.errors = List.copyOf(errors);
+    }
+}
@@ -1,40 +1,106 @@
 package lox;
 
-import java.util.List;
-
 class LoxFunction implements LoxCallable {
     private final Expr.Function declaration;
     private final String name;
-    private final Environment closure;
-    private Object ret = null;
-    LoxFunction(String name, Expr.Function declaration, Environment closure) {
+    // Only what the body references from enclosing frames, so a closure
+    // never keeps a whole frame alive.
+    private final Object[] captures;
+    // Made in the creating frame, which is null at the top level.
+    LoxFunction(String name, Expr.Function declaration, Environment creator) {
         this.name = name;
         this.declaration = declaration;
-        this.closure = closure;
+        this.captures = declaration.captures.length == 0
+                ? null : creator.capture(declaration.captures);
+    }
+    String name() {
+        return name;
     }
     @Override
     public String toString() {
         return "<fn " + name + ">";
     }
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return run(interpreter, bind(arguments));
+    }
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return run(interpreter, new Environment(captures, declaration.slots));
+    }
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Environment environment = new Environment(captures, declaration.slots);
+        environment.define(0, a);
+        return run(interpreter, environment);
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Environment environment = new Environment(captures, declaration.slots);
+        environment.define(0, a);
+        environment.define(1, b);
+        return run(interpreter, environment);
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Environment environment = new Environment(captures, declaration.slots);
+        environment.define(0, a);
+        environment.define(1, b);
+        environment.define(2, c);
+        return run(interpreter, environment);
+    }
 
-        interpreter.ret = null;
-        for (int i = 0; i < declaration.args.size(); i++) {
-            environment.define(declaration.args.get(i).lexeme,
-                    arguments.get(i));
-            //System.out.print("body " + this + " " + declaration.body.get(i));
+    // Parameters occupy the first slots of the call's environment.
+    private Environment bind(Object[] arguments) {
+        Environment environment = new Environment(captures, declaration.slots);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(i, arguments[i]);
+        }
+        return environment;
+    }
 
+    private Object run(Interpreter interpreter, Environment environment) {
+        Profiler profiler = interpreter.profiler;
+        if (profiler == null) return trampoline(interpreter, environment, null);
+        profiler.enter(this, declaration);
+        try {
+            return trampoline(interpreter, environment, profiler);
+        } finally {
+            profiler.exit();
         }
+    }
 
-        interpreter.executeBlock(declaration.body, environment);
-        interpreter.shouldReturn = false;
-        //System.out.println("call " + this + "and return" + interpreter.ret);
-        Object ret = interpreter.ret;
-        return ret;
+    private Object trampoline(Interpreter interpreter, Environment environment,
+                              Profiler profiler) {
+        LoxFunction function = this;
+        // Trampoline: a tail call comes back as a completion and runs in
+        // this loop, so chains of tail calls use constant Java stack.
+        for (;;) {
+            Interpreter.Completion completion =
+                    function.execute(interpreter, environment, profiler);
+            if (completion == null) return null;
+            if (completion.callee == null) return completion.value;
+            function = completion.callee;
+            environment = function.bind(completion.arguments);
+            if (profiler != null) profiler.replace(function, function.declaration);
+        }
+    }
+    // Runs the compiled body once there is one. Profiling needs every
+    // statement's line, so it keeps to the interpreter.
+    private Interpreter.Completion execute(Interpreter interpreter,
+                                           Environment environment, Profiler profiler) {
+        if (declaration.cells != null) environment.box(declaration.cells);
+        if (profiler != null) return interpreter.executeBody(declaration, environment);
+        Jit.Code code = declaration.code;
+        if (code == null && interpreter.jitThreshold >= 0 &&
+                ++declaration.hotness > interpreter.jitThreshold) {
+            code = Jit.compile(declaration);
+        }
+        if (code != null) return code.run(interpreter, environment);
+        return interpreter.executeBody(declaration, environment);
     }
+
     public int arity() {
         return declaration.args.size();
     }
-}
\ No newline at end of file
+}
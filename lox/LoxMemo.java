@@ -0,0 +1,172 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lox.natives.NativeError;
+
+// A function wrapped by memo, which remembers the results of its last
+// maxEntries distinct calls and evicts the least recently used one past
+// that. Only worth it for functions without side effects. Arguments are
+// compared the way == compares them, so a rope and a string with the same
+// text are the same argument. Calls that throw aren't remembered.
+//
+// The cache is locked only to look up and store results, never while the
+// function runs, so recursive calls and tasks sharing one memo don't wait
+// on each other; two of them can compute the same result at once.
+final class LoxMemo implements LoxCallable {
+    static final LoxCallable MEMO = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 2;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            if (!(arguments[0] instanceof LoxCallable)) {
+                throw new NativeError("Argument 1 to 'memo' must be a function.");
+            }
+            Object size = arguments[1];
+            if (!(size instanceof Double) || (double)size != Math.floor((double)size) ||
+                    (double)size < 1 || (double)size > Integer.MAX_VALUE) {
+                throw new NativeError(
+                        "Argument 2 to 'memo' must be a positive whole number.");
+            }
+            return new LoxMemo((LoxCallable)arguments[0], (int)(double)size);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    static final LoxCallable STATS = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            if (!(arguments[0] instanceof LoxMemo)) {
+                throw new NativeError("Argument 1 to 'memoStats' must be a memo.");
+            }
+            return ((LoxMemo)arguments[0]).stats();
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    // Stands in for a result that isn't cached, since nil can be one.
+    private static final Object MISSING = new Object();
+
+    private final LoxCallable function;
+    private final Map<Object, Object> results;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private LoxMemo(LoxCallable function, int maxEntries) {
+        this.function = function;
+        this.results = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() <= maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        Object key = key(arguments);
+        Object result = lookUp(key);
+        if (result != MISSING) return result;
+        return remember(key, function.call(interpreter, arguments));
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        Object key = Collections.emptyList();
+        Object result = lookUp(key);
+        if (result != MISSING) return result;
+        return remember(key, function.call0(interpreter));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Object key = key(a);
+        Object result = lookUp(key);
+        if (result != MISSING) return result;
+        return remember(key, function.call1(interpreter, a));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Object key = Arrays.asList(key(a), key(b));
+        Object result = lookUp(key);
+        if (result != MISSING) return result;
+        return remember(key, function.call2(interpreter, a, b));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Object key = Arrays.asList(key(a), key(b), key(c));
+        Object result = lookUp(key);
+        if (result != MISSING) return result;
+        return remember(key, function.call3(interpreter, a, b, c));
+    }
+
+    // Strings are keyed by their text, which makes equals agree with
+    // Interpreter.isEqual for every value. A single argument is its own
+    // key; more are compared as a list.
+    private static Object key(Object value) {
+        return value instanceof CharSequence ? value.toString() : value;
+    }
+
+    private static Object key(Object[] arguments) {
+        if (arguments.length == 1) return key(arguments[0]);
+        Object[] keys = new Object[arguments.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(arguments[i]);
+        }
+        return Arrays.asList(keys);
+    }
+
+    private synchronized Object lookUp(Object key) {
+        Object result = results.getOrDefault(key, MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    private synchronized Object remember(Object key, Object result) {
+        results.put(key, result);
+        return result;
+    }
+
+    private synchronized String stats() {
+        return "hits: " + hits + ", misses: " + misses +
+                ", evictions: " + evictions + ", size: " + results.size();
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package lox;
+
+import lox.natives.Native;
+
+// Lets the tree-walker call a Native through the fixed-arity entry points.
+// A NativeError passes through; the call site reports it with its line.
+class LoxNative implements LoxCallable {
+    private final Native function;
+
+    LoxNative(Native function) {
+        this.function = function;
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return function.call(arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return function.call0();
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return function.call1(a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return function.call2(a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return function.call3(a, b, c);
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
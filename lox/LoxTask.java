@@ -0,0 +1,106 @@
+package lox;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import lox.natives.NativeError;
+
+// A function running on a thread of its own, started by spawn and waited
+// for by join. The task gets its own Interpreter but shares the spawning
+// one's globals and output, and the function keeps its closure, so both
+// sides see the same variables; values are best handed over through a
+// channel. A runtime error in a task is thrown again by join, with its own
+// line, and is lost if nothing joins the task.
+final class LoxTask {
+    // Virtual threads where the JVM has them (21 and later), so a script
+    // can block thousands of tasks cheaply; daemon platform threads before.
+    private static final ExecutorService EXECUTOR = executor();
+
+    static final LoxCallable SPAWN = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            if (!(arguments[0] instanceof LoxCallable)) {
+                throw new NativeError("Argument 1 to 'spawn' must be a function.");
+            }
+            LoxCallable function = (LoxCallable)arguments[0];
+            if (function.arity() != 0) {
+                throw new NativeError("Argument 1 to 'spawn' must take no arguments.");
+            }
+            Interpreter task = new Interpreter(interpreter);
+            return new LoxTask(EXECUTOR.submit(() -> function.call0(task)));
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    static final LoxCallable JOIN = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            if (!(arguments[0] instanceof LoxTask)) {
+                throw new NativeError("Argument 1 to 'join' must be a task.");
+            }
+            return ((LoxTask)arguments[0]).join();
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    private final Future<Object> result;
+
+    private LoxTask(Future<Object> result) {
+        this.result = result;
+    }
+
+    private Object join() {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while joining.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeError) throw (RuntimeError)cause;
+            if (cause instanceof StackOverflowError) {
+                throw new NativeError("Stack overflow in task.");
+            }
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw (Error)cause;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+
+    private static ExecutorService executor() {
+        try {
+            return (ExecutorService)Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "lox-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// Rewrites the resolved AST before it runs. It runs after the resolver, so
+// errors in code it removes are still reported, and it only rewrites in
+// ways that keep the resolver's slots valid: blocks that declare anything,
+// or that own the frame their inner blocks' locals live in, are left
+// alone. Each pass can be turned off, to check that a script behaves the
+// same with and without it.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    enum Pass {
+        // Evaluates operators whose operands are literals, unless that
+        // would be a runtime error, which is left to happen at run time.
+        FOLD,
+        // Drops branches and loops whose condition is a literal, and
+        // expression statements with nothing to evaluate.
+        PRUNE,
+        // Removes groupings, and blocks that declare nothing, such as the
+        // ones left around a for loop's body.
+        FLATTEN
+    }
+
+    private final Set<Pass> passes;
+
+    Optimizer(Set<Pass> passes) {
+        this.passes = passes.isEmpty()
+                ? EnumSet.noneOf(Pass.class) : EnumSet.copyOf(passes);
+    }
+
+    // Parses "all", "none" or a comma-separated list of pass names.
+    static Optimizer parse(String names) {
+        if (names.equals("all")) return new Optimizer(EnumSet.allOf(Pass.class));
+        Set<Pass> passes = EnumSet.noneOf(Pass.class);
+        if (names.equals("none")) return new Optimizer(passes);
+        for (String name : names.split(",")) {
+            passes.add(Pass.valueOf(name.trim().toUpperCase()));
+        }
+        return new Optimizer(passes);
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        if (passes.isEmpty()) return statements;
+        return statements(statements);
+    }
+
+    @Override
+    public String toString() {
+        return passes.toString();
+    }
+
+    private List<Stmt> statements(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt optimized = statement.accept(this);
+            if (optimized == null) continue;
+            if (flattens(optimized)) {
+                result.addAll(((Stmt.Block)optimized).statements);
+            } else {
+                result.add(optimized);
+            }
+        }
+        return result;
+    }
+
+    // For a statement that isn't in a list, like a loop body.
+    private Stmt branch(Stmt stmt) {
+        Stmt optimized = stmt.accept(this);
+        if (optimized == null) return emptyBlock();
+        if (flattens(optimized)) {
+            List<Stmt> statements = ((Stmt.Block)optimized).statements;
+            if (statements.size() == 1) return statements.get(0);
+        }
+        return optimized;
+    }
+
+    // A block that owns an Environment, like the outermost ones at the
+    // top level, holds the locals hoisted out of the blocks inside it, so
+    // it has to stay even when it declares nothing itself.
+    private boolean flattens(Stmt stmt) {
+        if (!passes.contains(Pass.FLATTEN) || !(stmt instanceof Stmt.Block) ||
+                ((Stmt.Block)stmt).slots > 0) {
+            return false;
+        }
+        for (Stmt statement : ((Stmt.Block)stmt).statements) {
+            if (statement instanceof Stmt.Var ||
+                    statement instanceof Stmt.Function) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Stmt emptyBlock() {
+        Stmt.Block block = new Stmt.Block(new ArrayList<>());
+        block.slots = -1;
+        return block;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private boolean prunes(Expr condition) {
+        return passes.contains(Pass.PRUNE) && condition instanceof Expr.Literal;
+    }
+
+    private boolean folds(Expr expr) {
+        return passes.contains(Pass.FOLD) && expr instanceof Expr.Literal;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        stmt.statements = statements(stmt.statements);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        stmt.initializer = optimize(stmt.initializer);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        stmt.function = (Expr.Function)optimize(stmt.function);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression = optimize(stmt.expression);
+        if (!stmt.print && prunes(stmt.expression)) return null;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        stmt.condition = optimize(stmt.condition);
+        if (prunes(stmt.condition)) {
+            Stmt taken = isTruthy(stmt.condition) ? stmt.thenBranch : stmt.elseBranch;
+            return taken == null ? null : branch(taken);
+        }
+        stmt.thenBranch = branch(stmt.thenBranch);
+        if (stmt.elseBranch != null) stmt.elseBranch = branch(stmt.elseBranch);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression = optimize(stmt.expression);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        stmt.value = optimize(stmt.value);
+        if (stmt.tailCall != null) {
+            Expr value = stmt.value;
+            while (value instanceof Expr.Grouping) {
+                value = ((Expr.Grouping)value).expression;
+            }
+            stmt.tailCall = value instanceof Expr.Call ? (Expr.Call)value : null;
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        stmt.condition = optimize(stmt.condition);
+        if (prunes(stmt.condition) && !isTruthy(stmt.condition)) return null;
+        stmt.body = branch(stmt.body);
+        stmt.increment = optimize(stmt.increment);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitJumpStmt(Stmt.Jump stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = optimize(expr.expression);
+        if (passes.contains(Pass.FLATTEN) || folds(inner)) return inner;
+        return inner == expr.expression ? expr : new Expr.Grouping(inner);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (folds(right)) {
+            Object value = ((Expr.Literal)right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!isTruthy(right));
+            }
+            if (value instanceof Double) return new Expr.Literal(-(double)value);
+        }
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (folds(left) && folds(right)) {
+            Object folded = fold(expr.operator.type,
+                    ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            if (folded != NOT_CONSTANT) return new Expr.Literal(folded);
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    private static final Object NOT_CONSTANT = new Object();
+
+    // Mirrors Interpreter.binaryGeneric, giving up wherever it would throw.
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL: return isEqual(left, right);
+            case BANG_EQUAL: return !isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return (String)left + (String)right;
+                }
+                break;
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            return NOT_CONSTANT;
+        }
+        double a = (double)left;
+        double b = (double)right;
+        switch (operator) {
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESSER: return a < b;
+            case LESS_EQUAL: return a <= b;
+            default: return NOT_CONSTANT;
+        }
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null) return b == null;
+        return a.equals(b);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (folds(left)) {
+            boolean or = expr.operator.type == TokenType.OR;
+            return isTruthy(left) == or ? left : right;
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        Expr mostRight = optimize(expr.mostRight);
+        if (folds(left)) return isTruthy(left) ? right : mostRight;
+        if (left == expr.left && right == expr.right && mostRight == expr.mostRight) {
+            return expr;
+        }
+        return new Expr.Ternary(left, right, mostRight);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.access = expr.access;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+        List<Expr> args = new ArrayList<>(expr.args.size());
+        for (Expr arg : expr.args) {
+            Expr optimized = optimize(arg);
+            changed |= optimized != arg;
+            args.add(optimized);
+        }
+        return changed ? new Expr.Call(callee, expr.paren, args) : expr;
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+        Expr.Function function = new Expr.Function(expr.args, statements(expr.body));
+        function.slots = expr.slots;
+        function.captures = expr.captures;
+        function.cells = expr.cells;
+        return function;
+    }
+
+    private static boolean isTruthy(Expr literal) {
+        Object value = ((Expr.Literal)literal).value;
+        if (value == null) return false;
+        if (value instanceof Boolean) return (boolean)value;
+        return true;
+    }
+}
@@ -0,0 +1,140 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static lox.TokenType.*;
+
+// Parses a long token list in pieces on the common ForkJoin pool. The list
+// is cut before top-level 'var' and 'fun' declarations that follow a ';'
+// outside any braces or parentheses, and each piece is parsed on its own,
+// ending in the list's EOF. A piece that parses without errors gives the
+// statements the whole list has there, since nothing at the top level
+// looks past a finished statement for anything but an 'else'. If any piece
+// has an error the pieces are dropped and the whole list is parsed again
+// on this thread, so errors are reported exactly as they always were.
+final class ParallelParser {
+    // Fewer tokens than this per piece isn't worth handing to another thread.
+    static final int MIN_PIECE = 16_384;
+
+    private ParallelParser() {}
+
+    static List<Stmt> parse(List<Token> tokens, ErrorReporter reporter) {
+        return parse(tokens, reporter, 0);
+    }
+
+    // A positive pieces cuts the list into up to that many pieces however
+    // short it is, so tests can split small scripts. Zero picks the count
+    // from the list's length and the pool.
+    static List<Stmt> parse(List<Token> tokens, ErrorReporter reporter, int pieces) {
+        if (pieces == 0) {
+            int threads = ForkJoinPool.getCommonPoolParallelism();
+            pieces = threads > 1 ? Math.min(tokens.size() / MIN_PIECE, threads * 4) : 1;
+        }
+        if (pieces > 1) {
+            int[] cuts = cuts(tokens, pieces);
+            if (cuts.length > 2) {
+                List<Stmt> statements = parse(tokens, cuts);
+                if (statements != null) return statements;
+            }
+        }
+        return new Parser(tokens, reporter).parse();
+    }
+
+    // Null if any piece had a syntax error.
+    private static List<Stmt> parse(List<Token> tokens, int[] cuts) {
+        // Each piece sets only its own element, so the list never changes
+        // size while they run.
+        List<List<Stmt>> parsed = new ArrayList<>(Collections.nCopies(cuts.length - 1, null));
+        ForkJoinPool.commonPool().invoke(new Pieces(tokens, cuts, parsed, 0, parsed.size()));
+        int size = 0;
+        for (List<Stmt> piece : parsed) {
+            if (piece == null) return null;
+            size += piece.size();
+        }
+        List<Stmt> statements = new ArrayList<>(size);
+        for (List<Stmt> piece : parsed) {
+            statements.addAll(piece);
+        }
+        return statements;
+    }
+
+    // Where each piece starts, then the index of EOF. Cuts come at the
+    // first safe place after every tokens / pieces tokens.
+    private static int[] cuts(List<Token> tokens, int pieces) {
+        int end = tokens.size() - 1;
+        int stride = end / pieces;
+        int[] cuts = new int[pieces + 1];
+        int count = 1;
+        int depth = 0;
+        int next = stride;
+        for (int i = 1; i < end && count < pieces; i++) {
+            switch (tokens.get(i - 1).type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+                case SEMICOLON:
+                    if (depth == 0 && i >= next && startsDeclaration(tokens, i)) {
+                        cuts[count++] = i;
+                        next = i + stride;
+                    }
+                    break;
+            }
+        }
+        cuts[count++] = end;
+        return Arrays.copyOf(cuts, count);
+    }
+
+    private static boolean startsDeclaration(List<Token> tokens, int i) {
+        TokenType type = tokens.get(i).type;
+        return type == VAR || (type == FUN && tokens.get(i + 1).type == IDENTIFIER);
+    }
+
+    // Parses pieces [from, to), splitting the range until it's one piece.
+    private static final class Pieces extends RecursiveAction {
+        private final List<Token> tokens;
+        private final int[] cuts;
+        private final List<List<Stmt>> parsed;
+        private final int from;
+        private final int to;
+
+        Pieces(List<Token> tokens, int[] cuts, List<List<Stmt>> parsed, int from, int to) {
+            this.tokens = tokens;
+            this.cuts = cuts;
+            this.parsed = parsed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Pieces(tokens, cuts, parsed, from, middle),
+                        new Pieces(tokens, cuts, parsed, middle, to));
+                return;
+            }
+            List<Token> piece = new ArrayList<>(cuts[to] - cuts[from] + 1);
+            piece.addAll(tokens.subList(cuts[from], cuts[to]));
+            piece.add(tokens.get(tokens.size() - 1));
+            ErrorReporter reporter = new ErrorReporter(null);
+            try {
+                List<Stmt> statements = new Parser(piece, reporter).parse();
+                parsed.set(from, reporter.hadError ? null : statements);
+            } catch (RuntimeException e) {
+                // Whatever went wrong happens again, in order, when the
+                // whole list is parsed.
+                parsed.set(from, null);
+            }
+        }
+    }
+}
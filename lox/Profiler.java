@@ -0,0 +1,220 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// A sampling profiler for the tree-walker. The interpreter keeps a shadow
+// stack of the functions it's in and the line each one is on, which costs
+// a few stores per call and statement. A background thread looks at that
+// stack every interval and charges the time, and the bytes the interpreter
+// thread allocated, since its last look. Only call counts are exact;
+// everything else is an estimate from the samples.
+class Profiler {
+    private static final String SCRIPT = "<script>";
+
+    static final class Function {
+        final String name;
+        // Counted by the interpreter thread; the rest by the sampler.
+        long calls;
+        long inclusive;
+        long exclusive;
+        long allocated;
+
+        Function(String name) {
+            this.name = name;
+        }
+    }
+
+    static final class Line {
+        final int line;
+        long inclusive;
+        long exclusive;
+        long allocated;
+
+        Line(int line) {
+            this.line = line;
+        }
+    }
+
+    private final long interval;
+    private final Map<Expr.Function, Function> functions = new IdentityHashMap<>();
+    private final Function script = new Function(SCRIPT);
+
+    // Written only by the interpreter thread. The sampler reads them
+    // without any synchronization, so a sample can be off by a frame.
+    private Function[] stack = new Function[64];
+    private int[] lines = new int[64];
+    private int depth = 0;
+
+    // Written only by the sampler thread, read once it has stopped.
+    private final Map<Integer, Line> byLine = new HashMap<>();
+    private final Map<String, Long> stacks = new HashMap<>();
+    private long samples;
+    private long elapsed;
+
+    private Thread sampler;
+    private volatile boolean running;
+
+    Profiler(long intervalNanos) {
+        this.interval = intervalNanos;
+        stack[0] = script;
+        script.calls = 1;
+    }
+
+    // Called by the interpreter thread before it runs anything.
+    void start() {
+        Thread target = Thread.currentThread();
+        running = true;
+        sampler = new Thread(() -> sample(target), "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void enter(LoxFunction function, Expr.Function declaration) {
+        Function profile = functions.get(declaration);
+        if (profile == null) {
+            String name = function.name();
+            // Lambdas all share a name, so tell them apart by the line
+            // their body starts on.
+            if (name.equals("lambda") && !declaration.body.isEmpty()) {
+                name += "@" + declaration.body.get(0).line;
+            }
+            profile = new Function(name);
+            functions.put(declaration, profile);
+        }
+        profile.calls++;
+        int top = depth + 1;
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+            lines = Arrays.copyOf(lines, top * 2);
+        }
+        stack[top] = profile;
+        lines[top] = lines[depth];
+        depth = top;
+    }
+
+    // A tail call replaces the frame rather than pushing one.
+    void replace(LoxFunction function, Expr.Function declaration) {
+        depth--;
+        enter(function, declaration);
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    void line(int line) {
+        lines[depth] = line;
+    }
+
+    private void sample(Thread target) {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations =
+                threads instanceof com.sun.management.ThreadMXBean
+                        ? (com.sun.management.ThreadMXBean)threads : null;
+        long id = target.getId();
+        long last = System.nanoTime();
+        long allocated = allocations != null ? allocations.getThreadAllocatedBytes(id) : 0;
+        while (running) {
+            try {
+                Thread.sleep(interval / 1_000_000, (int)(interval % 1_000_000));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            long bytes = 0;
+            if (allocations != null) {
+                long total = allocations.getThreadAllocatedBytes(id);
+                bytes = Math.max(0, total - allocated);
+                allocated = total;
+            }
+            record(now - last, bytes);
+            last = now;
+        }
+    }
+
+    private void record(long nanos, long bytes) {
+        Function[] stack = this.stack;
+        int[] lines = this.lines;
+        int top = Math.min(depth, Math.min(stack.length, lines.length) - 1);
+        samples++;
+        elapsed += nanos;
+
+        StringBuilder path = new StringBuilder();
+        Set<Function> seenFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Integer> seenLines = new HashSet<>();
+        for (int i = 0; i <= top; i++) {
+            Function function = stack[i];
+            if (function == null) continue;
+            if (path.length() > 0) path.append(';');
+            path.append(function.name);
+            if (seenFunctions.add(function)) function.inclusive += nanos;
+            Line line = byLine.computeIfAbsent(lines[i], Line::new);
+            if (seenLines.add(lines[i])) line.inclusive += nanos;
+            if (i == top) {
+                function.exclusive += nanos;
+                function.allocated += bytes;
+                line.exclusive += nanos;
+                line.allocated += bytes;
+                path.append(':').append(lines[i]);
+            }
+        }
+        stacks.merge(path.toString(), nanos / 1000, Long::sum);
+    }
+
+    // Writes a summary of the hottest functions and lines.
+    void report(PrintStream out) {
+        out.printf("Profile: %d samples over %.1f ms%n", samples, elapsed / 1e6);
+        out.printf("%n%-30s %10s %10s %10s %12s%n",
+                "function", "calls", "incl ms", "excl ms", "alloc KB");
+        List<Function> hotFunctions = new ArrayList<>(functions.values());
+        hotFunctions.add(script);
+        hotFunctions.sort(Comparator.comparingLong((Function f) -> f.exclusive).reversed());
+        for (Function function : hotFunctions.subList(0, Math.min(20, hotFunctions.size()))) {
+            out.printf("%-30s %10d %10.1f %10.1f %12d%n", function.name,
+                    function.calls, function.inclusive / 1e6, function.exclusive / 1e6,
+                    function.allocated / 1024);
+        }
+
+        out.printf("%n%-30s %10s %10s %12s%n", "line", "incl ms", "excl ms", "alloc KB");
+        List<Line> hotLines = new ArrayList<>(byLine.values());
+        hotLines.sort(Comparator.comparingLong((Line l) -> l.exclusive).reversed());
+        for (Line line : hotLines.subList(0, Math.min(20, hotLines.size()))) {
+            out.printf("%-30s %10.1f %10.1f %12d%n", "line " + line.line,
+                    line.inclusive / 1e6, line.exclusive / 1e6, line.allocated / 1024);
+        }
+    }
+
+    // One line per distinct stack, as "<script>;f;g:line microseconds",
+    // the collapsed format flame graph tools read.
+    void writeStacks(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+                out.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+}
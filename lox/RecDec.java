@@ -3,6 +3,8 @@ package lox;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 import static lox.TokenType.*;
 
@@ -49,7 +51,15 @@ TODO:
  */
 class Parser {
     private static class ParseError extends RuntimeException {}
+    private static final Set<TokenType> UNARY_OPERATORS = EnumSet.of(BANG, MINUS);
+    private static final Set<TokenType> COMPOUND_ASSIGNMENTS =
+            EnumSet.of(PLUS_EQUAL, MINUS_EQUAL, STAR_EQUAL, SLASH_EQUAL);
+    private static final Set<TokenType> JUMPS = EnumSet.of(BREAK, CONTINUE);
     private final List<Token> tokens;
+    // Set when tokens are pulled from the scanner as they're needed, in
+    // which case tokens only holds the declaration being parsed.
+    private final Scanner scanner;
+    private final ErrorReporter reporter;
     private int current = 0;
     int isInloop = 0;
     int isInFun = 0;
@@ -58,26 +68,50 @@ class Parser {
         List<Stmt> statements = new ArrayList<>();
 
 
-        while (!isAtEnd()) {
-            statements.add(declaration());
+        while (hasNext()) {
+            statements.add(next());
         }
         return statements;
 
     }
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.scanner = null;
+        this.reporter = reporter;
+    }
+
+    Parser(Scanner scanner, ErrorReporter reporter) {
+        this.tokens = new ArrayList<>();
+        this.scanner = scanner;
+        this.reporter = reporter;
+    }
+
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // Parses one top-level declaration; null if it had a syntax error.
+    Stmt next() {
+        Stmt stmt = declaration();
+        if (scanner != null && current > 1) {
+            // Keep the last token around for previous().
+            tokens.subList(0, current - 1).clear();
+            current = 1;
+        }
+        return stmt;
     }
 
     private Stmt declaration() {
         try {
             if (check(FUN) && checkNext(IDENTIFIER)) {
+                int line = peek().line;
                 consume(FUN, null);
                 //Token name = consume(IDENTIFIER, "Expect name.");
-                return function("function");
+                return at(line, function("function"));
             }
             if (match(VAR)) {
-                return varDecl();
+                return at(previous().line, varDecl());
             }
             return statement();
         } catch (ParseError error) {
@@ -102,9 +136,13 @@ class Parser {
         }
         consume(RIGHT_PAREN, "')' expected after 'fun'");
         consume(LEFT_BRACE, "'{' expected after 'fun'");
+        // A loop around the function doesn't make 'break' legal inside it.
+        int enclosingLoops = this.isInloop;
+        this.isInloop = 0;
         this.isInFun += 1;
         List<Stmt> body = block();
         this.isInFun -= 1;
+        this.isInloop = enclosingLoops;
         //consume(SEMICOLON, "expected ';' after declaration of anonymous function");
         return new Expr.Function(args, body);
     }
@@ -120,6 +158,15 @@ class Parser {
     }
 
     private Stmt statement() {
+        return at(peek().line, bareStatement());
+    }
+
+    private static Stmt at(int line, Stmt stmt) {
+        stmt.line = line;
+        return stmt;
+    }
+
+    private Stmt bareStatement() {
         if (match(FOR)) {
             this.isInloop += 1;
             Stmt res = forStatement();
@@ -138,7 +185,7 @@ class Parser {
             this.isInloop -= 1;
             return res;
         }
-        if (match(BREAK, CONTINUE)) {
+        if (match(JUMPS)) {
             if (this.isInloop == 0) throw error(previous(), "'break' without loop");
             //System.out.println(parent);
             Stmt.Jump jump = new Stmt.Jump(previous());
@@ -167,14 +214,15 @@ class Parser {
     }
 
     private Stmt forStatement() {
+        int line = previous().line;
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
         } else if (match(VAR)) {
-            initializer = varDecl();
+            initializer = at(line, varDecl());
         } else {
-            initializer = expressionStatement();
+            initializer = at(line, expressionStatement());
         }
         Expr condition = null;
         if (!check(SEMICOLON)) {
@@ -188,13 +236,8 @@ class Parser {
         }
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
         Stmt body = statement();
-        if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(
-                    body,
-                    new Stmt.Expression(increment, false)));
-        }
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = at(line, new Stmt.While(condition, body, increment));
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
         }
@@ -255,7 +298,7 @@ class Parser {
     }
 
     private Expr assignment() {
-        Expr expr = logicOr();
+        Expr expr = binary(Precedence.OR);
         if (match(EQUAL)) {
             Token equals = previous();
             Expr value = assignment();
@@ -266,19 +309,17 @@ class Parser {
             error(equals, "Invalid assignment target.");
         }
         //shugar
-        if (match(PLUS_EQUAL, MINUS_EQUAL, STAR_EQUAL, SLASH_EQUAL)) {
+        if (match(COMPOUND_ASSIGNMENTS)) {
             Token operator = previous();
             Expr value = expression();
-            System.out.println(operator);
-            String op = Character.toString(operator.lexeme.charAt(0));
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable)expr).name;
                 Token oper = null;
-                switch (op) {
-                    case "+": oper = new Token(PLUS, op, null, name.line); break;
-                    case "-": oper = new Token(MINUS, op, null, name.line); break;
-                    case "*": oper = new Token(STAR, op, null, name.line); break;
-                    case "/": oper = new Token(SLASH, op, null, name.line); break;
+                switch (operator.type) {
+                    case PLUS_EQUAL: oper = new Token(PLUS, "+", null, name.line); break;
+                    case MINUS_EQUAL: oper = new Token(MINUS, "-", null, name.line); break;
+                    case STAR_EQUAL: oper = new Token(STAR, "*", null, name.line); break;
+                    case SLASH_EQUAL: oper = new Token(SLASH, "/", null, name.line); break;
                     default: error(name, "unrecohnized operation");
                 }
                 Expr.Binary sum = new Expr.Binary(expr, oper, value);
@@ -289,84 +330,79 @@ class Parser {
         return expr;
     }
 
-    private Expr logicOr() {
-        Expr expr = logicAnd();
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr logicAnd() {
-        Expr expr = equality();
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
+    // Binding strength of the binary operators and the ternary, loosest
+    // first, following the grammar above: the ternary binds tighter than
+    // equality, and its condition and middle are comparisons. Nothing
+    // binds as tightly as UNARY, so parsing at that level stops after
+    // the operand.
+    private enum Precedence {
+        NONE, OR, AND, EQUALITY, TERNARY, COMPARISON, TERM, FACTOR, UNARY;
 
-    private Expr equality() {
-        Expr expr = tern();
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = tern();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
+        private static final Precedence[] levels = values();
 
-    private Expr tern() {
-        Expr expr = comparison();
-        if (match(QUESTION)) {
-            Token operator = previous();
-            Expr right = comparison();
-            if (match(COLON)) {
-                operator = previous();
-                Expr mostRight = tern();
-                expr = new Expr.Ternary(expr, right, mostRight);
-            } else {
-                throw error(peek(), "Expect :.");
-            }
+        Precedence tighter() {
+            return levels[ordinal() + 1];
         }
-        return expr;
     }
 
-    private Expr comparison() {
-        Expr expr = addition();
-        while (match(GREATER, GREATER_EQUAL, GREATER_EQUAL, LESS_EQUAL, LESSER)) {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
+    private static Precedence precedence(TokenType type) {
+        switch (type) {
+            case OR: return Precedence.OR;
+            case AND: return Precedence.AND;
+            case BANG_EQUAL:
+            case EQUAL_EQUAL: return Precedence.EQUALITY;
+            case QUESTION: return Precedence.TERNARY;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESSER:
+            case LESS_EQUAL: return Precedence.COMPARISON;
+            case PLUS:
+            case MINUS: return Precedence.TERM;
+            case STAR:
+            case SLASH: return Precedence.FACTOR;
+            default: return Precedence.NONE;
         }
-        return expr;
     }
 
-    private Expr addition() {
-        Expr expr = multiplication();
-        while (match(PLUS, MINUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
+    // Precedence climbing from logic_or down to multiplication, in one
+    // loop instead of a method per level. Parses operators binding at
+    // least as tightly as min. An operator never follows one that binds
+    // more loosely: the right operand would have taken it, except after
+    // 'or', whose right operand is an equality. So "a or b and c" stops
+    // before 'and', as logic_or does.
+    private Expr binary(Precedence min) {
+        Expr expr = unary();
+        Precedence last = Precedence.UNARY;
+        for (;;) {
+            Precedence precedence = precedence(peek().type);
+            if (precedence.compareTo(min) < 0 || precedence.compareTo(last) > 0) {
+                return expr;
+            }
+            Token operator = advance();
+            switch (precedence) {
+                case OR:
+                case AND:
+                    expr = new Expr.Logical(expr, operator, binary(Precedence.EQUALITY));
+                    break;
+                case TERNARY:
+                    expr = ternary(expr);
+                    break;
+                default:
+                    expr = new Expr.Binary(expr, operator, binary(precedence.tighter()));
+            }
+            last = precedence;
         }
-        return expr;
     }
 
-    private Expr multiplication() {
-        Expr expr = unary();
-        while (match(STAR, SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr ternary(Expr condition) {
+        Expr right = binary(Precedence.COMPARISON);
+        if (!match(COLON)) throw error(peek(), "Expect :.");
+        Expr mostRight = binary(Precedence.TERNARY);
+        return new Expr.Ternary(condition, right, mostRight);
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
+        if (match(UNARY_OPERATORS)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
@@ -397,38 +433,44 @@ class Parser {
     }
 
     private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-        if (match(FUN)) {
-            return functionBody("function");
+        switch (peek().type) {
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                return new Expr.Literal(advance().literal);
+            case IDENTIFIER:
+                return new Expr.Variable(advance());
+            case LEFT_PAREN: {
+                advance();
+                Expr expr = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
+            case FUN:
+                advance();
+                return functionBody("function");
         }
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
-        }
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
+    }
 
-        return false;
+    private boolean match(Set<TokenType> types) {
+        if (isAtEnd() || !types.contains(peek().type)) return false;
+        advance();
+        return true;
     }
 
     private Token consume(TokenType type, String message) {
@@ -443,8 +485,8 @@ class Parser {
 
     private boolean checkNext(TokenType type) {
         if (isAtEnd()) return false;
-        if (tokens.get(current + 1) .type== EOF) return false;
-        return tokens.get(current + 1).type == type;
+        if (token(current + 1) .type== EOF) return false;
+        return token(current + 1).type == type;
     }
 
     private Token advance() {
@@ -457,7 +499,14 @@ class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return token(current);
+    }
+
+    private Token token(int index) {
+        while (scanner != null && index >= tokens.size()) {
+            tokens.add(scanner.nextToken());
+        }
+        return tokens.get(index);
     }
 
     private Token previous() {
@@ -465,7 +514,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
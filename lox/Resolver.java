@@ -0,0 +1,421 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Besides binding every local to a slot, the resolver works out what each
+// function captures. Blocks don't get an Environment of their own: their
+// locals are hoisted into the frame of the surrounding function call, or
+// of the outermost block at the top level. A closure gets its own copy of
+// each value it references from enclosing frames, made when it's created,
+// except for locals that are reassigned after that could happen. Those
+// live in a Cell that the frame and every closure capturing them share.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final ErrorReporter reporter;
+    private final List<Scope> scopes = new ArrayList<>();
+    private final List<Reference> references = new ArrayList<>();
+    private final List<Declaration> declarations = new ArrayList<>();
+    private Scope current;
+
+    private static class Local {
+        final Scope scope;
+        boolean defined;
+        // Set once the declaration has its value, so a closure made
+        // before then, like one referencing its own function, can't
+        // have copied it.
+        boolean ready;
+        boolean captured;
+        // Assigned, redeclared or captured before it was ready.
+        boolean reassigned;
+        int slot;
+
+        Local(Scope scope) {
+            this.scope = scope;
+        }
+
+        boolean cell() {
+            return captured && reassigned;
+        }
+    }
+
+    private static class Scope {
+        final Scope enclosing;
+        final boolean function;
+        final Map<Integer, Local> locals = new HashMap<>();
+        final List<Local> order = new ArrayList<>();
+        // For a function, the locals of enclosing frames it references,
+        // directly or for a closure nested in it, in capture order.
+        final List<Local> captures = new ArrayList<>();
+        Stmt.Block block;
+        Expr.Function declaration;
+        Scope owner;
+        int size;
+
+        Scope(Scope enclosing, boolean function) {
+            this.enclosing = enclosing;
+            this.function = function;
+        }
+
+        // Function scopes are frames, and so are blocks at the top level,
+        // which have no frame to borrow slots from.
+        boolean materialized() {
+            return function || enclosing == null;
+        }
+    }
+
+    private static class Reference {
+        final Expr expr;
+        final Scope from;
+        final Local local;
+
+        Reference(Expr expr, Scope from, Local local) {
+            this.expr = expr;
+            this.from = from;
+            this.local = local;
+        }
+    }
+
+    private static class Declaration {
+        final Stmt stmt;
+        final Local local;
+        // The first declaration of the name in its scope.
+        final boolean first;
+
+        Declaration(Stmt stmt, Local local, boolean first) {
+            this.stmt = stmt;
+            this.local = local;
+            this.first = first;
+        }
+    }
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    void resolve(List<Stmt> statements) {
+        resolveStatements(statements);
+        assignSlots();
+    }
+
+    private void resolveStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope(false).block = stmt;
+        resolveStatements(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Local local = declare(stmt, stmt.name);
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        if (local != null) local.defined = local.ready = true;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        Local local = declare(stmt, stmt.name);
+        if (local != null) local.defined = true;
+        resolveFunction(stmt.function);
+        if (local != null) local.ready = true;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            resolve(stmt.value);
+            Expr value = stmt.value;
+            while (value instanceof Expr.Grouping) {
+                value = ((Expr.Grouping)value).expression;
+            }
+            if (value instanceof Expr.Call) stmt.tailCall = (Expr.Call)value;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        if (stmt.increment != null) resolve(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitJumpStmt(Stmt.Jump stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (current != null) {
+            Local local = current.locals.get(expr.name.symbol);
+            if (local != null && !local.defined) {
+                reporter.error(expr.name,
+                        "Can't read local variable in its own initializer.");
+            }
+        }
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        resolveFunction(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr arg : expr.args) {
+            resolve(arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        resolve(expr.mostRight);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    // Parameters and the top level of the body share one scope, matching
+    // the single environment LoxFunction.call creates per invocation.
+    private void resolveFunction(Expr.Function function) {
+        beginScope(true).declaration = function;
+        for (Token param : function.args) {
+            if (current.locals.containsKey(param.symbol)) {
+                reporter.error(param, "Duplicate parameter name.");
+            }
+            Local local = declare(null, param);
+            local.defined = local.ready = true;
+        }
+        resolveStatements(function.body);
+        endScope();
+    }
+
+    private Scope beginScope(boolean function) {
+        current = new Scope(current, function);
+        scopes.add(current);
+        return current;
+    }
+
+    private void endScope() {
+        current = current.enclosing;
+    }
+
+    // Returns null for globals, which are bound at run time. Redeclaring a
+    // name in the same scope reuses its local.
+    private Local declare(Stmt stmt, Token name) {
+        if (current == null) return null;
+        Local local = current.locals.get(name.symbol);
+        boolean first = local == null;
+        if (first) {
+            local = new Local(current);
+            current.locals.put(name.symbol, local);
+            current.order.add(local);
+        } else {
+            local.reassigned = true;
+        }
+        local.defined = false;
+        local.ready = false;
+        if (stmt != null) declarations.add(new Declaration(stmt, local, first));
+        return local;
+    }
+
+    private void resolveLocal(Expr expr, Token name) {
+        List<Scope> crossed = null;
+        for (Scope scope = current; scope != null; scope = scope.enclosing) {
+            Local local = scope.locals.get(name.symbol);
+            if (local != null) {
+                if (expr instanceof Expr.Assign) local.reassigned = true;
+                if (crossed != null) {
+                    local.captured = true;
+                    if (!local.ready) local.reassigned = true;
+                    // Every function in between passes it along.
+                    for (Scope function : crossed) {
+                        if (!function.captures.contains(local)) {
+                            function.captures.add(local);
+                        }
+                    }
+                }
+                references.add(new Reference(expr, current, local));
+                return;
+            }
+            if (scope.function) {
+                if (crossed == null) crossed = new ArrayList<>();
+                crossed.add(scope);
+            }
+        }
+    }
+
+    // Runs once the whole program is resolved, when every capture is known.
+    // Scopes were recorded outermost first, so an owner always has its
+    // final layout before anything hoisted into it is placed.
+    private void assignSlots() {
+        for (Scope scope : scopes) {
+            scope.owner = scope.materialized() ? scope : scope.enclosing.owner;
+            for (Local local : scope.order) {
+                local.slot = scope.owner.size++;
+            }
+        }
+        for (Scope scope : scopes) {
+            if (scope.block != null) {
+                scope.block.slots = scope.owner == scope ? scope.size : -1;
+            } else {
+                scope.declaration.slots = scope.size;
+                scope.declaration.captures = sources(scope);
+                scope.declaration.cells = cells(scope);
+            }
+        }
+        for (Declaration declaration : declarations) {
+            Local local = declaration.local;
+            Stmt.Store store = !local.cell() ? Stmt.Store.SLOT
+                    : declaration.first ? Stmt.Store.NEW_CELL : Stmt.Store.CELL;
+            if (declaration.stmt instanceof Stmt.Var) {
+                ((Stmt.Var)declaration.stmt).slot = local.slot;
+                ((Stmt.Var)declaration.stmt).store = store;
+            } else {
+                ((Stmt.Function)declaration.stmt).slot = local.slot;
+                ((Stmt.Function)declaration.stmt).store = store;
+            }
+        }
+        for (Reference reference : references) {
+            Local local = reference.local;
+            Scope frame = reference.from.owner;
+            if (local.scope.owner == frame) {
+                resolve(reference.expr, local.cell()
+                        ? Expr.Access.LOCAL_CELL : Expr.Access.LOCAL, local.slot);
+            } else {
+                resolve(reference.expr, local.cell()
+                        ? Expr.Access.CAPTURE_CELL : Expr.Access.CAPTURE,
+                        frame.captures.indexOf(local));
+            }
+        }
+        scopes.clear();
+        references.clear();
+        declarations.clear();
+    }
+
+    // Where each of a function's captures is found in the frame that
+    // makes the closure: one of its slots, or ~index into its captures.
+    private static int[] sources(Scope function) {
+        int[] sources = new int[function.captures.size()];
+        Scope creator = function.enclosing == null ? null : function.enclosing.owner;
+        for (int i = 0; i < sources.length; i++) {
+            Local local = function.captures.get(i);
+            sources[i] = local.scope.owner == creator
+                    ? local.slot : ~creator.captures.indexOf(local);
+        }
+        return sources;
+    }
+
+    // Parameters come first in a function's scope.
+    private static int[] cells(Scope function) {
+        int count = Math.min(function.declaration.args.size(), function.order.size());
+        List<Integer> cells = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Local param = function.order.get(i);
+            if (param.cell()) cells.add(param.slot);
+        }
+        if (cells.isEmpty()) return null;
+        int[] slots = new int[cells.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = cells.get(i);
+        }
+        return slots;
+    }
+
+    // Results go on the tree itself, never into an interpreter, so a
+    // resolved tree can be shared by any number of them.
+    private static void resolve(Expr expr, Expr.Access access, int slot) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable)expr).access = access;
+            ((Expr.Variable)expr).slot = slot;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign)expr).access = access;
+            ((Expr.Assign)expr).slot = slot;
+        }
+    }
+}
@@ -1,19 +1,39 @@
 package lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static lox.TokenType.*;
 
+// Scans either a whole source string, whose tokens then point into it, or
+// a Reader, pulling characters through a window that only has to hold the
+// token being scanned. Tokens are handed out one at a time by nextToken.
 class Scanner {
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final Reader reader;
+    private final ErrorReporter reporter;
+    private char[] buffer;
+    private CharBuffer window;
+    // Position in the input of buffer[0], and how much of buffer is filled.
+    private int offset = 0;
+    private int limit = 0;
+    private boolean exhausted = false;
+    private Token token;
     private int start = 0;
     private int current = 0;
     private int line = 0;
     private static final Map<String, TokenType> keywords;
+    // Keyword types indexed by the keyword's symbol.
+    private static final TokenType[] keywordTypes;
+    // When streaming, fixed-spelling tokens share the first lexeme seen.
+    private static final String[] spellings = new String[TokenType.values().length];
 
     static {
         keywords = new HashMap<>();
@@ -36,18 +56,53 @@ class Scanner {
         keywords.put("while",  WHILE);
         keywords.put("break",  BREAK);
         keywords.put("continue",  CONTINUE);
+
+        int size = 0;
+        for (String keyword : keywords.keySet()) {
+            size = Math.max(size, Symbols.intern(keyword) + 1);
+        }
+        keywordTypes = new TokenType[size];
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+            keywordTypes[Symbols.intern(keyword.getKey())] = keyword.getValue();
+        }
     }
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reader = null;
+        this.reporter = reporter;
+    }
+
+    Scanner(Reader reader, ErrorReporter reporter) {
+        this.source = null;
+        this.reader = reader;
+        this.reporter = reporter;
+        this.buffer = new char[8192];
+        this.window = CharBuffer.wrap(buffer);
     }
 
     List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    // Keeps returning EOF once the input is used up.
+    Token nextToken() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
+            if (token != null) {
+                Token next = token;
+                token = null;
+                return next;
+            }
         }
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        start = current;
+        return makeToken(EOF, null, -1);
     }
 
     private void scanToken() {
@@ -99,7 +154,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    reporter.error(line, "Unexpected character.");
                 }
                 break;
 
@@ -108,10 +163,15 @@ class Scanner {
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        int symbol = source != null
+                ? Symbols.intern(source, start, current)
+                : Symbols.intern(window, start - offset, current - offset);
+        TokenType type = symbol < keywordTypes.length ? keywordTypes[symbol] : null;
+        if (type != null) {
+            addToken(type);
+        } else {
+            token = makeToken(IDENTIFIER, null, symbol);
+        }
     }
 
     private boolean isAlpha(char c) {
@@ -131,7 +191,7 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
         addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+                Double.parseDouble(text(start, current)));
     }
 
     private boolean isDigit(char c) {
@@ -144,34 +204,34 @@ class Scanner {
             advance();
         }
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
+        String value = text(start + 1, current - 1);
         addToken(STRING, value);
     }
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!available(current + 1)) return '\0';
+        return charAt(current + 1);
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (charAt(current) != expected) return false;
         current++;
         return true;
     }
 
     private char advance() {
         current++;
-        return source.charAt(current - 1);
+        return charAt(current - 1);
     }
 
     private void addToken(TokenType type) {
@@ -179,11 +239,76 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        token = makeToken(type, literal, -1);
+    }
+
+    private Token makeToken(TokenType type, Object literal, int symbol) {
+        int length = current - start;
+        if (source != null) {
+            return new Token(type, source, start, length, literal, line, symbol);
+        }
+        // A streamed token can't point into the window, which moves on.
+        String text;
+        switch (type) {
+            case IDENTIFIER: text = null; break;
+            case STRING: case NUMBER: case EOF: text = text(start, current); break;
+            default:
+                text = spellings[type.ordinal()];
+                if (text == null) {
+                    text = text(start, current);
+                    spellings[type.ordinal()] = text;
+                }
+        }
+        return new Token(type, text, 0, length, literal, line, symbol);
+    }
+
+    private String text(int from, int to) {
+        if (source != null) return source.substring(from, to);
+        return new String(buffer, from - offset, to - from);
+    }
+
+    private char charAt(int position) {
+        if (source != null) return source.charAt(position);
+        return buffer[position - offset];
+    }
+
+    private boolean available(int position) {
+        if (source != null) return position < source.length();
+        return position - offset < limit || fill(position);
+    }
+
+    // Reads until position is in the window, first dropping whatever comes
+    // before the current token and only growing the buffer when the token
+    // itself doesn't fit.
+    private boolean fill(int position) {
+        try {
+            while (position - offset >= limit) {
+                if (exhausted) return false;
+                if (limit == buffer.length) {
+                    int consumed = start - offset;
+                    if (consumed > 0) {
+                        System.arraycopy(buffer, consumed, buffer, 0, limit - consumed);
+                        offset += consumed;
+                        limit -= consumed;
+                    } else {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        window = CharBuffer.wrap(buffer);
+                    }
+                }
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    exhausted = true;
+                } else {
+                    limit += read;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(current);
     }
 }
\ No newline at end of file
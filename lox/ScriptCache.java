@@ -0,0 +1,646 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Keeps resolved ASTs on disk so an unchanged script skips scanning,
+// parsing, resolution and optimization. Entries are named by a hash of the
+// cache format version, the build of the interpreter, the options and the
+// script's bytes, so a stale entry is never looked up.
+// Anything that can't be read back is treated as a miss.
+class ScriptCache {
+    // Bump whenever the AST, the resolver's annotations or this encoding
+    // change.
+    static final int VERSION = 3;
+    private static final int MAGIC = 0x4c4f5843;
+
+    private static final byte NULL = 0;
+    private static final byte UNARY = 1, BINARY = 2, LITERAL = 3,
+            TERNARY = 4, VARIABLE = 5, ASSIGN = 6, LOGICAL = 7,
+            GROUPING = 8, CALL = 9, FUNCTION = 10;
+    private static final byte JUMP = 20, VAR = 21, WHILE = 22, PRINT = 23,
+            EXPRESSION = 24, BLOCK = 25, IF = 26, FUNCTION_STMT = 27,
+            RETURN = 28;
+    private static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3,
+            STRING = 4;
+    private static final TokenType[] types = TokenType.values();
+    private static final Expr.Access[] accesses = Expr.Access.values();
+    private static final Stmt.Store[] stores = Stmt.Store.values();
+
+    private final Path directory;
+
+    // A digest of the interpreter's own classes, so entries written by any
+    // other build are never read, whether or not VERSION was bumped.
+    // Computed the first time a key is needed.
+    private static final class Build {
+        static final byte[] ID = id();
+
+        private static byte[] id() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                CodeSource source = ScriptCache.class.getProtectionDomain().getCodeSource();
+                Path path = Paths.get(source.getLocation().toURI());
+                if (Files.isDirectory(path)) {
+                    List<Path> classes;
+                    try (Stream<Path> files = Files.walk(path)) {
+                        classes = files.filter(file -> file.toString().endsWith(".class"))
+                                .sorted().collect(Collectors.toList());
+                    }
+                    for (Path file : classes) {
+                        digest.update(path.relativize(file).toString()
+                                .getBytes(StandardCharsets.UTF_8));
+                        digest.update(Files.readAllBytes(file));
+                    }
+                } else {
+                    digest.update(Files.readAllBytes(path));
+                }
+                return digest.digest();
+            } catch (IOException | URISyntaxException | RuntimeException |
+                     NoSuchAlgorithmException e) {
+                // With no way to tell builds apart, entries only match
+                // within this process.
+                byte[] id = new byte[32];
+                new SecureRandom().nextBytes(id);
+                return id;
+            }
+        }
+    }
+
+    ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // Options are whatever else shapes the stored AST, like the optimizer's
+    // passes.
+    static String key(byte[] source, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte)VERSION);
+            digest.update((byte)(VERSION >>> 8));
+            digest.update(Build.ID);
+            digest.update(options.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(source)) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns null when there's no usable entry.
+    List<Stmt> load(String key) {
+        try (InputStream in = Files.newInputStream(directory.resolve(key))) {
+            return new Reader(new DataInputStream(
+                    new BufferedInputStream(in))).program();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Failing to write only costs the next run its head start.
+    void store(String key, List<Stmt> statements) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(out));
+                new Writer(data).program(statements);
+                data.flush();
+            }
+            Files.move(temp, directory.resolve(key),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException e) {
+            // Leave it for a later run.
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // Nothing else to try.
+                }
+            }
+        }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void program(List<Stmt> statements) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            try {
+                statements(statements);
+            } catch (Failure failure) {
+                throw failure.cause;
+            }
+        }
+
+        private void statements(List<Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt stmt : statements) {
+                stmt(stmt);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(NULL);
+            } else {
+                stmt.accept(this);
+                writeInt(stmt.line);
+            }
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                writeByte(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void token(Token token) {
+            writeByte(token.type.ordinal());
+            writeInt(token.line);
+            string(token.lexeme());
+        }
+
+        private void string(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+            strings.put(string, strings.size());
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(-1);
+            writeInt(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new Failure(e);
+            }
+        }
+
+        // Null is written as a length of -1.
+        private void ints(int[] values) {
+            if (values == null) {
+                writeInt(-1);
+                return;
+            }
+            writeInt(values.length);
+            for (int value : values) {
+                writeInt(value);
+            }
+        }
+
+        private void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new Failure(e);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new Failure(e);
+            }
+        }
+
+        private void writeDouble(double value) {
+            try {
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new Failure(e);
+            }
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                writeByte(NUMBER);
+                writeDouble((Double)value);
+            } else {
+                writeByte(STRING);
+                string((String)value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            writeByte(TERNARY);
+            expr(expr.left);
+            expr(expr.right);
+            expr(expr.mostRight);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(VARIABLE);
+            token(expr.name);
+            writeByte(expr.access.ordinal());
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            writeByte(expr.access.ordinal());
+            writeInt(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            writeInt(expr.args.size());
+            for (Expr arg : expr.args) {
+                expr(arg);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(Expr.Function expr) {
+            writeByte(FUNCTION);
+            writeInt(expr.args.size());
+            for (Token param : expr.args) {
+                token(param);
+            }
+            statements(expr.body);
+            writeInt(expr.slots);
+            ints(expr.captures);
+            ints(expr.cells);
+            return null;
+        }
+
+        @Override
+        public Void visitJumpStmt(Stmt.Jump stmt) {
+            writeByte(JUMP);
+            token(stmt.jump);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            writeInt(stmt.slot);
+            writeByte(stmt.store.ordinal());
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            expr(stmt.increment);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(EXPRESSION);
+            expr(stmt.expression);
+            writeByte(stmt.print ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(BLOCK);
+            statements(stmt.statements);
+            writeInt(stmt.slots);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(FUNCTION_STMT);
+            token(stmt.name);
+            expr(stmt.function);
+            writeInt(stmt.slot);
+            writeByte(stmt.store.ordinal());
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            writeByte(stmt.tailCall != null ? 1 : 0);
+            return null;
+        }
+    }
+
+    // Carries an IOException out through the visitor methods.
+    private static class Failure extends RuntimeException {
+        final IOException cause;
+
+        Failure(IOException cause) {
+            super(null, null, false, false);
+            this.cause = cause;
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> program() throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a cached script.");
+            }
+            List<Stmt> statements = statements();
+            if (in.read() != -1) throw new IOException("Trailing data.");
+            return statements;
+        }
+
+        private List<Stmt> statements() throws IOException {
+            int count = in.readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        private Token token() throws IOException {
+            TokenType type = types[in.readUnsignedByte()];
+            int line = in.readInt();
+            return new Token(type, string(), null, line);
+        }
+
+        private String string() throws IOException {
+            int index = in.readInt();
+            if (index >= 0) return strings.get(index);
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private int[] ints() throws IOException {
+            int length = in.readInt();
+            if (length < 0) return null;
+            int[] values = new int[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = in.readInt();
+            }
+            return values;
+        }
+
+        private Expr expr() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                case BINARY: {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expr());
+                }
+                case LITERAL:
+                    return new Expr.Literal(literal());
+                case TERNARY: {
+                    Expr left = expr();
+                    Expr right = expr();
+                    return new Expr.Ternary(left, right, expr());
+                }
+                case VARIABLE: {
+                    Expr.Variable variable = new Expr.Variable(token());
+                    variable.access = accesses[in.readUnsignedByte()];
+                    variable.slot = in.readInt();
+                    return variable;
+                }
+                case ASSIGN: {
+                    Token name = token();
+                    Expr.Assign assign = new Expr.Assign(name, expr());
+                    assign.access = accesses[in.readUnsignedByte()];
+                    assign.slot = in.readInt();
+                    return assign;
+                }
+                case LOGICAL: {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expr());
+                case CALL: {
+                    Expr callee = expr();
+                    Token paren = token();
+                    int count = in.readInt();
+                    List<Expr> args = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        args.add(expr());
+                    }
+                    return new Expr.Call(callee, paren, args);
+                }
+                case FUNCTION: {
+                    int count = in.readInt();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        params.add(token());
+                    }
+                    Expr.Function function =
+                            new Expr.Function(params, statements());
+                    function.slots = in.readInt();
+                    function.captures = ints();
+                    function.cells = ints();
+                    return function;
+                }
+                default:
+                    throw new IOException("Bad expression tag " + tag + ".");
+            }
+        }
+
+        private Object literal() throws IOException {
+            byte kind = in.readByte();
+            switch (kind) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return string();
+                default: throw new IOException("Bad literal " + kind + ".");
+            }
+        }
+
+        private Stmt stmt() throws IOException {
+            byte tag = in.readByte();
+            if (tag == NULL) return null;
+            Stmt stmt = stmt(tag);
+            stmt.line = in.readInt();
+            return stmt;
+        }
+
+        private Stmt stmt(byte tag) throws IOException {
+            switch (tag) {
+                case JUMP:
+                    return new Stmt.Jump(token());
+                case VAR: {
+                    Token name = token();
+                    Stmt.Var var = new Stmt.Var(name, expr());
+                    var.slot = in.readInt();
+                    var.store = stores[in.readUnsignedByte()];
+                    return var;
+                }
+                case WHILE: {
+                    Expr condition = expr();
+                    Stmt body = stmt();
+                    return new Stmt.While(condition, body, expr());
+                }
+                case PRINT:
+                    return new Stmt.Print(expr());
+                case EXPRESSION: {
+                    Expr expression = expr();
+                    return new Stmt.Expression(expression, in.readByte() != 0);
+                }
+                case BLOCK: {
+                    Stmt.Block block = new Stmt.Block(statements());
+                    block.slots = in.readInt();
+                    return block;
+                }
+                case IF: {
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    return new Stmt.If(condition, thenBranch, stmt());
+                }
+                case FUNCTION_STMT: {
+                    Token name = token();
+                    Stmt.Function function =
+                            new Stmt.Function(name, (Expr.Function)expr());
+                    function.slot = in.readInt();
+                    function.store = stores[in.readUnsignedByte()];
+                    return function;
+                }
+                case RETURN: {
+                    Token keyword = token();
+                    Stmt.Return stmt = new Stmt.Return(keyword, expr());
+                    if (in.readByte() != 0) {
+                        Expr value = stmt.value;
+                        while (value instanceof Expr.Grouping) {
+                            value = ((Expr.Grouping)value).expression;
+                        }
+                        stmt.tailCall = (Expr.Call)value;
+                    }
+                    return stmt;
+                }
+                default:
+                    throw new IOException("Bad statement tag " + tag + ".");
+            }
+        }
+    }
+}
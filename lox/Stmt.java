@@ -4,6 +4,11 @@ import java.util.List;
 import java.util.ArrayList;
 
 abstract class Stmt {
+// How a declaration stores a local's value: straight into its frame slot,
+// into a new Cell it puts there first, or into the Cell an earlier
+// declaration of the same name in the scope made.
+enum Store { SLOT, NEW_CELL, CELL }
+
 interface Visitor<R> {
 R visitJumpStmt(Jump stmt);
 R visitVarStmt(Var stmt);
@@ -17,6 +22,8 @@ R visitReturnStmt(Return stmt);
 }
 
 Stmt parent;
+// The line the statement starts on.
+int line;
 
 static class Jump extends Stmt {
 Jump(Token jump) {
@@ -48,6 +55,8 @@ Stmt parent;
 
         Token keyword;
         Expr value;
+        // The value when it is a call in tail position; set by Resolver.
+        Expr.Call tailCall;
 
 
     }
@@ -65,6 +74,8 @@ return visitor.visitVarStmt(this);
 
 Token name;
 Expr initializer;
+int slot = -1;
+Store store = Store.SLOT;
 Stmt parent;
 
 
@@ -72,9 +83,14 @@ Stmt parent;
 
 static class While extends Stmt {
 While(Expr condition, Stmt body) {
+this(condition, body, null);
+}
+
+While(Expr condition, Stmt body, Expr increment) {
 this.condition = condition;
 if (body != null) body.parent = this;
 this.body = body;
+this.increment = increment;
 
 
 }
@@ -85,8 +101,9 @@ return visitor.visitWhileStmt(this);
 
 Expr condition;
 Stmt body;
+// The for-loop increment, run after the body and after 'continue'.
+Expr increment;
 Stmt parent;
-boolean shouldBreak;
 
 
 }
@@ -120,6 +137,8 @@ Stmt parent;
 
         Token name;
         Expr.Function function;
+        int slot = -1;
+        Store store = Store.SLOT;
     }
 
 static class Expression extends Stmt {
@@ -157,6 +176,9 @@ return visitor.visitBlockStmt(this);
 }
 
 List<Stmt> statements;
+// -1 when the block's locals are hoisted into the enclosing frame, which
+// is every block but the outermost ones at the top level.
+int slots;
 Stmt parent;
 
 
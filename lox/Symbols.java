@@ -0,0 +1,88 @@
+package lox;
+
+import java.util.Arrays;
+
+// Process-wide table interning identifier names to small integer ids. The
+// scanner interns straight from the source text, so an identifier's name is
+// only copied out the first time it is seen.
+//
+// Interning takes a lock, but looking a name up doesn't, since every
+// token's lexeme comes from here, at run time as well. The table never
+// shrinks: every distinct identifier any script in the process has used
+// stays in it until the process exits.
+final class Symbols {
+    // Written only under the lock; reassigned after every change so that a
+    // thread holding a symbol id always sees its name.
+    private static volatile String[] names = new String[256];
+    private static int[] hashes = new int[256];
+    private static int count = 0;
+    // Open addressing; holds symbol + 1, zero marks an empty bucket.
+    private static int[] table = new int[512];
+
+    private Symbols() {}
+
+    static int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    static synchronized int intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int mask = table.length - 1;
+        for (int bucket = hash & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = table[bucket];
+            if (entry == 0) break;
+            int symbol = entry - 1;
+            String name = names[symbol];
+            if (hashes[symbol] == hash && matches(name, source, start, end)) {
+                return symbol;
+            }
+        }
+        return add(source.subSequence(start, end).toString(), hash);
+    }
+
+    private static boolean matches(String name, CharSequence source,
+                                   int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != source.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static String name(int symbol) {
+        return names[symbol];
+    }
+
+    private static int add(String name, int hash) {
+        String[] names = Symbols.names;
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int symbol = count++;
+        names[symbol] = name;
+        hashes[symbol] = hash;
+        Symbols.names = names;
+        if (count * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int i = 0; i < count; i++) {
+                place(i);
+            }
+        } else {
+            place(symbol);
+        }
+        return symbol;
+    }
+
+    private static void place(int symbol) {
+        int mask = table.length - 1;
+        int bucket = hashes[symbol] & mask;
+        while (table[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = symbol + 1;
+    }
+}
@@ -1,19 +1,40 @@
 package lox;
 
+// A token points into the source text instead of holding its own copy of
+// the lexeme, which is only materialized when someone asks for it. For
+// identifiers, symbol is the interned name's id; other tokens use -1.
 class Token {
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
+    final int symbol;
+    private final String source;
+    private final int start;
+    private final int length;
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    Token(TokenType type, String source, int start, int length,
+          Object literal, int line, int symbol) {
         this.type = type;
-        this.lexeme = lexeme;
+        this.source = source;
+        this.start = start;
+        this.length = length;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
+    }
+
+    // For tokens made up by the parser rather than scanned.
+    Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, 0, lexeme.length(), literal, line,
+                type == TokenType.IDENTIFIER ? Symbols.intern(lexeme) : -1);
+    }
+
+    String lexeme() {
+        if (symbol >= 0) return Symbols.name(symbol);
+        return source.substring(start, start + length);
     }
 
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
-}
\ No newline at end of file
+}
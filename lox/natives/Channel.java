@@ -0,0 +1,46 @@
+package lox.natives;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+// A bounded queue that Lox tasks hand values through. Sending to a full
+// channel blocks until a value is received, and receiving from an empty
+// one blocks until a value is sent. With capacity 0 every send waits for
+// its receive.
+public final class Channel {
+    // Stands in for nil, which a BlockingQueue can't hold.
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    Channel(int capacity) {
+        this.queue = capacity == 0
+                ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) {
+        try {
+            queue.put(value == null ? NIL : value);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while sending.");
+        }
+    }
+
+    Object receive() {
+        Object value;
+        try {
+            value = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while receiving.");
+        }
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
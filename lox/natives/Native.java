@@ -0,0 +1,79 @@
+package lox.natives;
+
+import java.lang.invoke.MethodHandle;
+
+// A Java static method bound as a Lox function. The handle takes and
+// returns Objects and already checks and unboxes its arguments, so calls
+// with up to three arguments go straight to invokeExact without an array.
+public final class Native {
+    private final String name;
+    private final int arity;
+    private final MethodHandle handle;
+    private final MethodHandle spreader;
+
+    Native(String name, int arity, MethodHandle handle) {
+        this.name = name;
+        this.arity = arity;
+        this.handle = handle;
+        this.spreader = handle.asSpreader(Object[].class, arity);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int arity() {
+        return arity;
+    }
+
+    public Object call(Object[] arguments) {
+        try {
+            return (Object)spreader.invokeExact(arguments);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public Object call0() {
+        try {
+            return (Object)handle.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public Object call1(Object a) {
+        try {
+            return (Object)handle.invokeExact(a);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public Object call2(Object a, Object b) {
+        try {
+            return (Object)handle.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public Object call3(Object a, Object b, Object c) {
+        try {
+            return (Object)handle.invokeExact(a, b, c);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) return (RuntimeException)e;
+        if (e instanceof Error) throw (Error)e;
+        return new IllegalStateException(e);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
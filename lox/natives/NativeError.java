@@ -0,0 +1,9 @@
+package lox.natives;
+
+// Thrown by a native for a bad argument. Each engine reports it as a
+// runtime error at the line of the call.
+public class NativeError extends RuntimeException {
+    public NativeError(String message) {
+        super(message, null, false, false);
+    }
+}
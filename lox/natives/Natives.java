@@ -0,0 +1,129 @@
+package lox.natives;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+// Turns the public static methods of a library class into Natives, named
+// after the methods. Parameters may be double, boolean, String, Object or
+// a class like Channel that only natives create; anything else is rejected
+// when the library is loaded, not when it's called. A String parameter
+// accepts a Rope, flattened.
+public final class Natives {
+    private static final MethodHandle NUMBER;
+    private static final MethodHandle BOOLEAN;
+    private static final MethodHandle STRING;
+    private static final MethodHandle INSTANCE;
+    private static List<Native> standardLibrary;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            NUMBER = lookup.findStatic(Natives.class, "number",
+                    MethodType.methodType(double.class, String.class, Object.class));
+            BOOLEAN = lookup.findStatic(Natives.class, "bool",
+                    MethodType.methodType(boolean.class, String.class, Object.class));
+            STRING = lookup.findStatic(Natives.class, "string",
+                    MethodType.methodType(String.class, String.class, Object.class));
+            INSTANCE = lookup.findStatic(Natives.class, "instance",
+                    MethodType.methodType(Object.class, String.class, Class.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Natives() {}
+
+    public static synchronized List<Native> standardLibrary() {
+        if (standardLibrary == null) {
+            standardLibrary = load(StandardLibrary.class);
+        }
+        return standardLibrary;
+    }
+
+    // Sorted by name, so natives always get defined in the same order.
+    public static List<Native> load(Class<?> library) {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : library.getDeclaredMethods()) {
+            int modifiers = method.getModifiers();
+            if (Modifier.isPublic(modifiers) && Modifier.isStatic(modifiers)) {
+                methods.add(method);
+            }
+        }
+        methods.sort(Comparator.comparing(Method::getName));
+
+        List<Native> natives = new ArrayList<>();
+        for (Method method : methods) {
+            natives.add(bind(method));
+        }
+        return Collections.unmodifiableList(natives);
+    }
+
+    private static Native bind(Method method) {
+        String name = method.getName();
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Class<?>[] parameters = method.getParameterTypes();
+        for (int i = 0; i < parameters.length; i++) {
+            MethodHandle check = check(name, i, parameters[i]);
+            if (check != null) {
+                handle = MethodHandles.filterArguments(handle, i, check);
+            }
+        }
+        handle = handle.asType(MethodType.genericMethodType(parameters.length));
+        return new Native(name, parameters.length, handle);
+    }
+
+    private static MethodHandle check(String name, int index, Class<?> type) {
+        MethodHandle check;
+        if (type == double.class) {
+            check = NUMBER;
+        } else if (type == boolean.class) {
+            check = BOOLEAN;
+        } else if (type == String.class) {
+            check = STRING;
+        } else if (type == Object.class) {
+            return null;
+        } else if (!type.isPrimitive()) {
+            check = MethodHandles.insertArguments(INSTANCE, 1, type)
+                    .asType(MethodType.methodType(type, String.class, Object.class));
+        } else {
+            throw new IllegalArgumentException("Native '" + name +
+                    "' can't take a " + type.getSimpleName() + ".");
+        }
+        return MethodHandles.insertArguments(check, 0,
+                "Argument " + (index + 1) + " to '" + name + "'");
+    }
+
+    private static double number(String argument, Object value) {
+        if (value instanceof Double) return (Double)value;
+        throw new NativeError(argument + " must be a number.");
+    }
+
+    private static boolean bool(String argument, Object value) {
+        if (value instanceof Boolean) return (Boolean)value;
+        throw new NativeError(argument + " must be a boolean.");
+    }
+
+    private static String string(String argument, Object value) {
+        if (value instanceof CharSequence) return value.toString();
+        throw new NativeError(argument + " must be a string.");
+    }
+
+    private static Object instance(String argument, Class<?> type, Object value) {
+        if (type.isInstance(value)) return value;
+        throw new NativeError(argument + " must be a " +
+                type.getSimpleName().toLowerCase(Locale.ROOT) + ".");
+    }
+}
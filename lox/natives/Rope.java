@@ -0,0 +1,90 @@
+package lox.natives;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A Lox string built by concatenation. Concatenating only links the two
+// halves, so building a long string piece by piece stays linear; the
+// characters are copied out once, the first time something needs the flat
+// String. Engines treat any CharSequence as a Lox string and compare them
+// by content.
+public final class Rope implements CharSequence {
+    // Shorter results are cheaper to copy than to link.
+    private static final int MIN_LENGTH = 128;
+
+    // Threads that flatten the same rope at once each copy it and publish
+    // equal strings, which is cheaper than making every rope wait on a
+    // lock. The halves are dropped only after the flat string is set, so
+    // a thread that finds one missing finds the string instead.
+    private final int length;
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+    private volatile String flat;
+
+    private Rope(CharSequence left, CharSequence right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    public static CharSequence concat(CharSequence a, CharSequence b) {
+        if (a.length() == 0) return b;
+        if (b.length() == 0) return a;
+        int length = a.length() + b.length();
+        if (length < 0) throw new OutOfMemoryError("String too long.");
+        if (length < MIN_LENGTH) return a.toString().concat(b.toString());
+        return new Rope(a, b, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        return text != null ? text : flatten();
+    }
+
+    // Copies the leaves in from the end, which walks the usual left-leaning
+    // chain from s = s + x without growing the stack of pending halves.
+    private String flatten() {
+        char[] chars = new char[length];
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        int end = length;
+        CharSequence node = this;
+        for (;;) {
+            if (node instanceof Rope && ((Rope)node).flat == null) {
+                Rope rope = (Rope)node;
+                CharSequence l = rope.left;
+                CharSequence r = rope.right;
+                if (l != null && r != null) {
+                    pending.push(l);
+                    node = r;
+                    continue;
+                }
+            }
+            String text = node.toString();
+            end -= text.length();
+            text.getChars(0, text.length(), chars, end);
+            if (pending.isEmpty()) break;
+            node = pending.pop();
+        }
+        String text = new String(chars);
+        flat = text;
+        left = null;
+        right = null;
+        return text;
+    }
+}
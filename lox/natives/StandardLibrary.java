@@ -0,0 +1,224 @@
+package lox.natives;
+
+import java.util.Locale;
+
+// The natives every engine defines. Each public static method becomes a
+// global function of the same name; helpers have to stay private. Indexes
+// are zero-based, and a range's end is exclusive.
+public final class StandardLibrary {
+    private static final double START = System.nanoTime();
+
+    private StandardLibrary() {}
+
+    // Clock
+
+    public static double time() {
+        return (double)System.currentTimeMillis() / 1000.0;
+    }
+
+    // Seconds since the interpreter started, at nanosecond resolution.
+    public static double clock() {
+        return (System.nanoTime() - START) / 1e9;
+    }
+
+    public static double nanotime() {
+        return (double)System.nanoTime();
+    }
+
+    // Math
+
+    public static double abs(double x) {
+        return Math.abs(x);
+    }
+
+    public static double sqrt(double x) {
+        return Math.sqrt(x);
+    }
+
+    public static double pow(double x, double y) {
+        return Math.pow(x, y);
+    }
+
+    public static double exp(double x) {
+        return Math.exp(x);
+    }
+
+    public static double log(double x) {
+        return Math.log(x);
+    }
+
+    public static double floor(double x) {
+        return Math.floor(x);
+    }
+
+    public static double ceil(double x) {
+        return Math.ceil(x);
+    }
+
+    // Halves round up, as in Math.round.
+    public static double round(double x) {
+        double nearest = Math.rint(x);
+        return nearest - x == -0.5 ? nearest + 1 : nearest;
+    }
+
+    public static double min(double x, double y) {
+        return Math.min(x, y);
+    }
+
+    public static double max(double x, double y) {
+        return Math.max(x, y);
+    }
+
+    // Takes the sign of the dividend, like Java's %.
+    public static double mod(double x, double y) {
+        return x % y;
+    }
+
+    public static double sin(double x) {
+        return Math.sin(x);
+    }
+
+    public static double cos(double x) {
+        return Math.cos(x);
+    }
+
+    public static double tan(double x) {
+        return Math.tan(x);
+    }
+
+    public static double atan2(double y, double x) {
+        return Math.atan2(y, x);
+    }
+
+    public static double random() {
+        return Math.random();
+    }
+
+    // Strings
+
+    public static double len(String s) {
+        return s.length();
+    }
+
+    public static String substr(String s, double start, double end) {
+        int from = index("substr", start, s.length());
+        int to = index("substr", end, s.length());
+        if (from > to) {
+            throw new NativeError("Start index of 'substr' is after its end.");
+        }
+        return s.substring(from, to);
+    }
+
+    public static String charAt(String s, double i) {
+        int index = index("charAt", i, s.length() - 1);
+        return s.substring(index, index + 1);
+    }
+
+    public static double indexOf(String s, String part) {
+        return s.indexOf(part);
+    }
+
+    public static double lastIndexOf(String s, String part) {
+        return s.lastIndexOf(part);
+    }
+
+    public static boolean contains(String s, String part) {
+        return s.contains(part);
+    }
+
+    public static boolean startsWith(String s, String prefix) {
+        return s.startsWith(prefix);
+    }
+
+    public static boolean endsWith(String s, String suffix) {
+        return s.endsWith(suffix);
+    }
+
+    public static String upper(String s) {
+        return s.toUpperCase(Locale.ROOT);
+    }
+
+    public static String lower(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    public static String trim(String s) {
+        return s.strip();
+    }
+
+    public static String replace(String s, String target, String replacement) {
+        return s.replace(target, replacement);
+    }
+
+    public static String repeat(String s, double count) {
+        return s.repeat(index("repeat", count, Integer.MAX_VALUE));
+    }
+
+    // Numbers
+
+    // Returns nil for anything but a Lox number literal, optionally signed
+    // and surrounded by whitespace.
+    public static Object parseNumber(String s) {
+        String text = s.strip();
+        int i = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+        int digits = 0;
+        while (i < text.length() && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < text.length() && text.charAt(i) == '.') {
+            i++;
+            int fraction = 0;
+            while (i < text.length() && isDigit(text.charAt(i))) {
+                i++;
+                fraction++;
+            }
+            if (fraction == 0) return null;
+        }
+        if (digits == 0 || i != text.length()) return null;
+        return Double.parseDouble(text);
+    }
+
+    // Formats a value the way print does.
+    public static String str(Object value) {
+        if (value == null) return "nil";
+        if (value instanceof Double) {
+            String text = value.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return value.toString();
+    }
+
+    public static String fixed(double x, double digits) {
+        return String.format(Locale.ROOT, "%." + index("fixed", digits, 100) + "f", x);
+    }
+
+    // Channels
+
+    public static Channel channel(double capacity) {
+        return new Channel(index("channel", capacity, Integer.MAX_VALUE));
+    }
+
+    public static Object send(Channel channel, Object value) {
+        channel.send(value);
+        return null;
+    }
+
+    public static Object receive(Channel channel) {
+        return channel.receive();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int index(String name, double value, int max) {
+        if (value != Math.floor(value) || value < 0 || value > max) {
+            throw new NativeError("Index out of range in '" + name + "'.");
+        }
+        return (int)value;
+    }
+}
@@ -0,0 +1,48 @@
+package lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants = new Object[16];
+    private int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    public void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte)b;
+        lines[count] = line;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void patch(int offset, int b) {
+        code[offset] = (byte)b;
+    }
+
+    // Numbers and strings are shared between uses; function prototypes are
+    // always distinct.
+    public int addConstant(Object value) {
+        boolean shared = value instanceof Double || value instanceof String;
+        if (shared) {
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        if (shared) constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+}
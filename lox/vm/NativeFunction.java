@@ -0,0 +1,6 @@
+package lox.vm;
+
+public interface NativeFunction {
+    Object call(Object[] arguments);
+    int arity();
+}
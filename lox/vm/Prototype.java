@@ -0,0 +1,26 @@
+package lox.vm;
+
+public class Prototype {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount;
+
+    public Prototype(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public Chunk chunk() {
+        return chunk;
+    }
+
+    public void setUpvalueCount(int upvalueCount) {
+        this.upvalueCount = upvalueCount;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
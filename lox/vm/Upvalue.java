@@ -0,0 +1,15 @@
+package lox.vm;
+
+// Points at a VM stack slot while the variable is live, then owns the value
+// once the slot is popped.
+class Upvalue {
+    final int slot;
+    Object closed;
+    boolean open = true;
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,472 @@
+package lox.vm;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import lox.natives.Native;
+import lox.natives.NativeError;
+import lox.natives.Natives;
+import lox.natives.Rope;
+
+public class VM {
+    private static final Object UNDEFINED = new Object();
+
+    private static class CallFrame {
+        Closure closure;
+        int ip;
+        int base;
+    }
+
+    private final PrintStream out;
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues;
+
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private String[] globalNames = new String[64];
+    private Object[] globals = new Object[64];
+
+    public VM() {
+        this(System.out);
+    }
+
+    public VM(PrintStream out) {
+        this.out = out;
+        for (Native function : Natives.standardLibrary()) {
+            defineNative(function.name(), new NativeFunction() {
+                @Override
+                public int arity() { return function.arity(); }
+
+                @Override
+                public Object call(Object[] arguments) {
+                    try {
+                        return function.call(arguments);
+                    } catch (NativeError error) {
+                        throw new VmError(error.getMessage(), -1);
+                    }
+                }
+
+                @Override
+                public String toString() { return function.toString(); }
+            });
+        }
+    }
+
+    // Global names are bound to table slots at compile time; the slot stays
+    // UNDEFINED until the defining statement runs.
+    public int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+        slot = globalSlots.size();
+        if (slot == globals.length) {
+            globals = Arrays.copyOf(globals, slot * 2);
+            globalNames = Arrays.copyOf(globalNames, slot * 2);
+        }
+        globals[slot] = UNDEFINED;
+        globalNames[slot] = name;
+        globalSlots.put(name, slot);
+        return slot;
+    }
+
+    public void defineNative(String name, NativeFunction function) {
+        globals[globalSlot(name)] = function;
+    }
+
+    public void interpret(Prototype script) {
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+        try {
+            push(new Closure(script));
+            pushFrame((Closure)stack[0], 0);
+            run();
+        } finally {
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    // TAIL_CALL to a native falls through into RETURN on purpose.
+    @SuppressWarnings("fallthrough")
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.prototype.chunk.code;
+        Object[] constants = frame.closure.prototype.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        try {
+            for (;;) {
+                byte op = code[ip++];
+                switch (op) {
+                    case OpCode.CONSTANT: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        push(constants[index]);
+                        break;
+                    }
+                    case OpCode.NIL: push(null); break;
+                    case OpCode.TRUE: push(Boolean.TRUE); break;
+                    case OpCode.FALSE: push(Boolean.FALSE); break;
+                    case OpCode.POP: stack[--sp] = null; break;
+                    case OpCode.GET_LOCAL:
+                        push(stack[base + (code[ip++] & 0xff)]);
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case OpCode.GET_UPVALUE: {
+                        Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        push(upvalue.open ? stack[upvalue.slot] : upvalue.closed);
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE: {
+                        Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        if (upvalue.open) stack[upvalue.slot] = stack[sp - 1];
+                        else upvalue.closed = stack[sp - 1];
+                        break;
+                    }
+                    case OpCode.GET_GLOBAL: {
+                        int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        Object value = globals[slot];
+                        if (value == UNDEFINED) {
+                            throw undefined(slot);
+                        }
+                        push(value);
+                        break;
+                    }
+                    case OpCode.SET_GLOBAL: {
+                        int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (globals[slot] == UNDEFINED) {
+                            throw undefined(slot);
+                        }
+                        globals[slot] = stack[sp - 1];
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL: {
+                        int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        globals[slot] = pop();
+                        break;
+                    }
+                    case OpCode.EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        push(isEqual(a, b));
+                        break;
+                    }
+                    case OpCode.NOT_EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        push(!isEqual(a, b));
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a > (double)b);
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a >= (double)b);
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a < (double)b);
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a <= (double)b);
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Double && b instanceof Double) {
+                            push((double)a + (double)b);
+                        } else if (a instanceof CharSequence && b instanceof CharSequence) {
+                            push(Rope.concat((CharSequence)a, (CharSequence)b));
+                        } else {
+                            throw new VmError("Operands must be two numbers or two strings.", -1);
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a - (double)b);
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a * (double)b);
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        Object b = pop();
+                        Object a = pop();
+                        checkNumbers(a, b);
+                        push((double)a / (double)b);
+                        break;
+                    }
+                    case OpCode.NOT:
+                        push(!isTruthy(pop()));
+                        break;
+                    case OpCode.NEGATE: {
+                        Object a = pop();
+                        if (!(a instanceof Double)) {
+                            throw new VmError("operand must be double", -1);
+                        }
+                        push(-(double)a);
+                        break;
+                    }
+                    case OpCode.PRINT:
+                        out.println(stringify(pop()));
+                        break;
+                    case OpCode.JUMP: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2 + offset;
+                        break;
+                    }
+                    case OpCode.JUMP_IF_FALSE: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (!isTruthy(pop())) ip += offset;
+                        break;
+                    }
+                    case OpCode.JUMP_IF_FALSE_OR_POP: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (!isTruthy(stack[sp - 1])) ip += offset;
+                        else stack[--sp] = null;
+                        break;
+                    }
+                    case OpCode.JUMP_IF_TRUE_OR_POP: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (isTruthy(stack[sp - 1])) ip += offset;
+                        else stack[--sp] = null;
+                        break;
+                    }
+                    case OpCode.LOOP: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2 - offset;
+                        break;
+                    }
+                    case OpCode.CALL: {
+                        int argCount = code[ip++] & 0xff;
+                        Object callee = stack[sp - argCount - 1];
+                        if (callee instanceof Closure) {
+                            Closure closure = (Closure)callee;
+                            checkArity(closure.prototype.arity, argCount);
+                            frame.ip = ip;
+                            frame = pushFrame(closure, sp - argCount - 1);
+                            code = closure.prototype.chunk.code;
+                            constants = closure.prototype.chunk.constants;
+                            ip = 0;
+                            base = frame.base;
+                        } else if (callee instanceof NativeFunction) {
+                            NativeFunction function = (NativeFunction)callee;
+                            checkArity(function.arity(), argCount);
+                            Object[] arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+                            Object result = function.call(arguments);
+                            Arrays.fill(stack, sp - argCount - 1, sp, null);
+                            sp -= argCount + 1;
+                            push(result);
+                        } else {
+                            throw new VmError("Can only call functions and classes.", -1);
+                        }
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        Closure closure = new Closure((Prototype)constants[index]);
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int slot = code[ip++] & 0xff;
+                            closure.upvalues[i] = isLocal
+                                    ? captureUpvalue(base + slot)
+                                    : frame.closure.upvalues[slot];
+                        }
+                        push(closure);
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(sp - 1);
+                        stack[--sp] = null;
+                        break;
+                    case OpCode.TAIL_CALL: {
+                        int argCount = code[ip++] & 0xff;
+                        Object callee = stack[sp - argCount - 1];
+                        if (callee instanceof Closure) {
+                            // Reuse the current frame: slide the callee and
+                            // its arguments down over the caller's slots.
+                            Closure closure = (Closure)callee;
+                            checkArity(closure.prototype.arity, argCount);
+                            closeUpvalues(base);
+                            System.arraycopy(stack, sp - argCount - 1, stack, base, argCount + 1);
+                            Arrays.fill(stack, base + argCount + 1, sp, null);
+                            sp = base + argCount + 1;
+                            frame.closure = closure;
+                            code = closure.prototype.chunk.code;
+                            constants = closure.prototype.chunk.constants;
+                            ip = 0;
+                            break;
+                        }
+                        if (!(callee instanceof NativeFunction)) {
+                            throw new VmError("Can only call functions and classes.", -1);
+                        }
+                        NativeFunction function = (NativeFunction)callee;
+                        checkArity(function.arity(), argCount);
+                        push(function.call(Arrays.copyOfRange(stack, sp - argCount, sp)));
+                        // Falls through to return the native's result.
+                    }
+                    case OpCode.RETURN: {
+                        Object result = pop();
+                        closeUpvalues(base);
+                        Arrays.fill(stack, base, sp, null);
+                        sp = base;
+                        frames[--frameCount].closure = null;
+                        if (frameCount == 0) return;
+                        push(result);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.prototype.chunk.code;
+                        constants = frame.closure.prototype.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + op);
+                }
+            }
+        } catch (VmError error) {
+            if (error.line != -1) throw error;
+            throw new VmError(error.getMessage(),
+                    frame.closure.prototype.chunk.lines[ip - 1]);
+        }
+    }
+
+    private CallFrame pushFrame(Closure closure, int base) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        return frame;
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.open = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private VmError undefined(int slot) {
+        return new VmError("Undefined variable '" + globalNames[slot] + "'.", -1);
+    }
+
+    private void checkArity(int arity, int argCount) {
+        if (argCount != arity) {
+            throw new VmError("Expected " + arity + " arguments but got " +
+                    argCount + ".", -1);
+        }
+    }
+
+    private void checkNumbers(Object a, Object b) {
+        if (a instanceof Double && b instanceof Double) return;
+        throw new VmError("operands must be double", -1);
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return a.toString().equals(b.toString());
+        }
+        return a.equals(b);
+    }
+
+    public static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+}
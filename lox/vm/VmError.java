@@ -0,0 +1,10 @@
+package lox.vm;
+
+public class VmError extends RuntimeException {
+    public final int line;
+
+    VmError(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+}
@@ -0,0 +1,34 @@
+#!/bin/sh
+# Runs every script under test/conformance on each engine, whole-file,
+# streamed, through the script cache, unoptimized, with every function
+# compiled or none, and parsed in pieces, and compares its stdout with the script's
+# "// expect: " comments.
+cd "$(dirname "$0")/.." || exit 1
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -encoding UTF-8 -d "$out/classes" $(find lox -name '*.java') || exit 1
+
+status=0
+# The first cached run fills the cache, the ones after it load from it.
+cached="--cache=$out/cache"
+for mode in --engine=tree --engine=vm "--engine=tree --stream" "--engine=vm --stream" \
+    "--engine=tree $cached" "--engine=tree $cached" "--engine=vm $cached" \
+    "--engine=tree --optimize=none" "--engine=vm --optimize=none" \
+    "--engine=tree --jit=0" "--engine=tree --jit=off" "--engine=tree --parse-pieces=8"; do
+  for script in test/conformance/*.lox; do
+    # Scripts that start with "// engine: tree" use what the VM lacks.
+    if head -1 "$script" | grep -q "^// engine: tree" && \
+        [ "${mode#*--engine=tree}" = "$mode" ]; then
+      continue
+    fi
+    sed -n 's/.*\/\/ expect: //p' "$script" > "$out/expected"
+    java -cp "$out/classes" lox.Lox $mode "$script" > "$out/actual" 2>&1
+    if ! diff -u "$out/expected" "$out/actual" > "$out/diff"; then
+      echo "FAIL [$mode] $script"
+      cat "$out/diff"
+      status=1
+    fi
+  done
+done
+[ $status -eq 0 ] && echo "All conformance scripts passed."
+exit $status